@@ -25,6 +25,7 @@ public class ProductBenchmark {
     private int arraySize;
 
     private byte[] productBytes;
+    private byte[][] productFrames;
     private Product[] standardProducts;
     private com.dariobalinzo.demo.valhalla.Product[] valhallaProducts;
 
@@ -32,6 +33,8 @@ public class ProductBenchmark {
     public void setup() throws Exception {
         Product product = generateSampleProduct();
         productBytes = product.toByteArray();
+        productFrames = new byte[arraySize][];
+        Arrays.fill(productFrames, productBytes);
 
         // Pre-allocate arrays
         standardProducts = new Product[arraySize];
@@ -64,6 +67,14 @@ public class ProductBenchmark {
         }
     }
 
+    @Benchmark
+    public void valhallaProtobufBulkParsing(Blackhole bh) throws Exception {
+        com.dariobalinzo.demo.valhalla.Product[] products =
+                new com.dariobalinzo.demo.valhalla.Product[arraySize];
+        com.dariobalinzo.demo.valhalla.Product.parseAll(productFrames, products);
+        bh.consume(products);
+    }
+
     @Benchmark
     public void standardProtobufParsingAndSorting(Blackhole bh) throws Exception {
         Product[] products = new Product[arraySize];
@@ -0,0 +1,86 @@
+package com.dariobalinzo.demo;
+
+import com.dariobalinzo.demo.standard.Product;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scaling of parseAllParallel with the number of fork-join workers,
+ * against the sequential parseAll on the same batch
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 3, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 3, jvmArgs = {"-Xmx10g", "--enable-preview"})
+public class ProductParallelBenchmark {
+
+    @Param({"100000", "500000"})
+    private int arraySize;
+
+    @Param({"1", "2", "4", "8"})
+    private int threads;
+
+    private byte[][] productFrames;
+    private ForkJoinPool pool;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Product.Builder builder = Product.newBuilder();
+        builder.setId(1234567);
+        builder.setPrice(99.95);
+        builder.setStockQuantity(42);
+        builder.setSku(987654321L);
+        builder.setWeightKg(1.25f);
+        builder.setReviewCount(10);
+        builder.setAverageRating(4.3f);
+        builder.setSalesCount(1_234L);
+        builder.setIsReturnable(true);
+        byte[] productBytes = builder.build().toByteArray();
+
+        productFrames = new byte[arraySize][];
+        Arrays.fill(productFrames, productBytes);
+        pool = new ForkJoinPool(threads);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public void valhallaSequentialParsing(Blackhole bh) throws Exception {
+        com.dariobalinzo.demo.valhalla.Product[] products =
+                new com.dariobalinzo.demo.valhalla.Product[arraySize];
+        com.dariobalinzo.demo.valhalla.Product.parseAll(productFrames, products);
+        bh.consume(products);
+    }
+
+    @Benchmark
+    public void valhallaParallelParsing(Blackhole bh) throws Exception {
+        com.dariobalinzo.demo.valhalla.Product[] products =
+                new com.dariobalinzo.demo.valhalla.Product[arraySize];
+        com.dariobalinzo.demo.valhalla.Product.parseAllParallel(productFrames, products, pool);
+        bh.consume(products);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(ProductParallelBenchmark.class.getSimpleName())
+                .resultFormat(ResultFormatType.JSON)
+                .result("parallel-benchmark-results.json")
+                .build();
+
+        new Runner(opt).run();
+    }
+}
@@ -1,6 +1,9 @@
 package com.dariobalinzo.protoc.valhalla;
 
 import com.google.protobuf.DescriptorProtos.*;
+
+import java.util.List;
+
 import static com.dariobalinzo.protoc.valhalla.ProtoUtils.*;
 
 /**
@@ -11,10 +14,16 @@ public class BuilderGenerator {
     private final StringBuilder sb = new StringBuilder();
     private final String pkg;
     private final DescriptorProto message;
+    private final GeneratorOptions options;
 
     public BuilderGenerator(String pkg, DescriptorProto message) {
+        this(pkg, message, GeneratorOptions.defaults());
+    }
+
+    public BuilderGenerator(String pkg, DescriptorProto message, GeneratorOptions options) {
         this.pkg = pkg;
         this.message = message;
+        this.options = options;
     }
 
     public String generate() {
@@ -22,6 +31,7 @@ public class BuilderGenerator {
         String builderName = className + "Builder";
 
         sb.append("package ").append(pkg).append(";\n\n");
+        sb.append("import com.google.protobuf.ByteString;\n");
         sb.append("import java.util.*;\n\n");
 
         sb.append("""
@@ -57,9 +67,38 @@ public class BuilderGenerator {
 
     private void generateFields() {
         for (FieldDescriptorProto field : message.getFieldList()) {
-            sb.append("    private ").append(getJavaType(field));
+            if (isOneofMember(field)) {
+                // Same shared slots as the value class
+                if (isFirstOneofMember(message, field)) {
+                    for (StorageSlot slot : getOneofSlots(message, field)) {
+                        sb.append("    private ").append(slot.type).append(" ").append(slot.name);
+                        sb.append(" = ").append(slot.defaultValue).append(";\n");
+                    }
+                }
+                continue;
+            }
+            DescriptorProto entry = getMapEntry(message, field);
+            if (entry != null) {
+                // Entries are put into the container's hash table directly, copied once per build()
+                sb.append("    private final ").append(getMapBuilderType(entry)).append(" ").append(field.getName());
+                sb.append(" = ").append(getMapContainerClassName(entry)).append(".newBuilder();\n");
+                continue;
+            }
+            if (isArrayContainerField(field, options)) {
+                // Grows the container's array in place (unboxed for scalars), copied once per build()
+                String type = getJavaType(field, options);
+                sb.append("    private final ").append(type).append(".Builder ").append(field.getName());
+                sb.append(" = ").append(type).append(".newBuilder();\n");
+                continue;
+            }
+            // Lazy sub-messages keep their holder, so untouched payloads are never decoded
+            sb.append("    private ").append(getStorageType(field, options));
             sb.append(" ").append(field.getName());
-            sb.append(" = ").append(getDefaultValue(field)).append(";\n");
+            sb.append(" = ").append(getDefaultValue(field, options)).append(";\n");
+        }
+        for (StorageSlot slot : getPresenceSlots(message)) {
+            sb.append("    private ").append(slot.type).append(" ").append(slot.name);
+            sb.append(" = ").append(slot.defaultValue).append(";\n");
         }
         sb.append("\n");
     }
@@ -69,8 +108,34 @@ public class BuilderGenerator {
         sb.append(" original) {\n");
         for (FieldDescriptorProto field : message.getFieldList()) {
             String name = field.getName();
+            if (isOneofMember(field)) {
+                // Slots are assigned directly, calling an overridable setter here would let this escape
+                sb.append("        if (original.has").append(capitalize(name)).append("()) {\n");
+                sb.append("            this.").append(getOneofCaseSlot(message, field)).append(" = ");
+                sb.append(field.getNumber()).append(";\n");
+                sb.append("            this.").append(getOneofValueSlot(message, field)).append(" = ");
+                sb.append(encodeOneofValue(field, "original.get" + getAccessorName(field) + "()")).append(";\n");
+                sb.append("        }\n");
+                continue;
+            }
+            if (isMapField(message, field)) {
+                sb.append("        this.").append(name).append(".putAll(original.get");
+                sb.append(getAccessorName(field)).append("());\n");
+                continue;
+            }
+            if (isArrayContainerField(field, options)) {
+                sb.append("        this.").append(name).append(".addAll(original.get");
+                sb.append(getAccessorName(field)).append("());\n");
+                continue;
+            }
             sb.append("        this.").append(name).append(" = original.get");
-            sb.append(capitalize(name)).append("();\n");
+            sb.append(getAccessorName(field)).append(getRawAccessorSuffix(field)).append("();\n");
+            if (hasPresenceBit(field)) {
+                sb.append("        if (original.has").append(capitalize(name)).append("()) {\n");
+                sb.append("            this.").append(getPresenceSlot(message, field)).append(" |= ");
+                sb.append(getPresenceMask(message, field)).append(";\n");
+                sb.append("        }\n");
+            }
         }
         sb.append("    }\n\n");
     }
@@ -78,17 +143,52 @@ public class BuilderGenerator {
     private void generateSetters(String builderName) {
         for (FieldDescriptorProto field : message.getFieldList()) {
             String name = field.getName();
-            String methodName = "set" + capitalize(name);
+            String methodName = "set" + getAccessorName(field);
+            if (isOneofMember(field) && isFirstOneofMember(message, field)) {
+                generateOneofClear(field, builderName);
+            }
+            if (isEnumField(field)) {
+                generateEnumSetter(field, builderName);
+            }
 
+            DescriptorProto entry = getMapEntry(message, field);
             sb.append("    public ").append(builderName).append(" ");
-            sb.append(methodName).append("(").append(getJavaType(field));
+            sb.append(methodName).append("(").append(getJavaType(message, field, options));
             sb.append(" value) {\n");
-            sb.append("        this.").append(name).append(" = value;\n");
+            if (entry != null) {
+                sb.append("        this.").append(name).append(".clear().putAll(value);\n");
+            } else if (isOneofMember(field)) {
+                appendOneofSet(field);
+            } else if (isArrayContainerField(field, options)) {
+                sb.append("        this.").append(name).append(".clear().addAll(value);\n");
+            } else if (isLazyStringField(field, options)) {
+                sb.append("        this.").append(name).append(" = ByteString.copyFromUtf8(value);\n");
+            } else if (isLazyMessageField(field, options)) {
+                sb.append("        this.").append(name).append(" = value == null ? null : LazyMessage.of(value);\n");
+            } else {
+                sb.append("        this.").append(name).append(" = value;\n");
+            }
+            if (hasPresenceBit(field)) {
+                appendPresenceUpdate(field);
+            }
             sb.append("        return this;\n");
             sb.append("    }\n\n");
 
-            // For repeated fields, add adder
-            if (isRepeatedField(field)) {
+            if (hasPresenceBit(field)) {
+                generatePresenceAccessors(field, builderName);
+            }
+
+            // For map fields, add put and remove, for repeated fields an adder
+            if (entry != null) {
+                generateMapSetters(field, entry, builderName);
+            } else if (isArrayContainerField(field, options)) {
+                sb.append("    public ").append(builderName).append(" add");
+                sb.append(capitalize(getSingularName(name))).append(isEnumField(field) ? "Value" : "").append("(");
+                sb.append(getBaseJavaType(field)).append(" value) {\n");
+                sb.append("        this.").append(name).append(".add(value);\n");
+                sb.append("        return this;\n");
+                sb.append("    }\n\n");
+            } else if (isRepeatedField(field)) {
                 String singularName = getSingularName(name);
                 sb.append("    public ").append(builderName).append(" add");
                 sb.append(capitalize(singularName)).append("(");
@@ -103,25 +203,177 @@ public class BuilderGenerator {
         }
     }
 
+    private void generateMapSetters(FieldDescriptorProto field, DescriptorProto entry, String builderName) {
+        String name = field.getName();
+        String keyType = getMapKeyType(entry);
+        sb.append("    public ").append(builderName).append(" put").append(capitalize(name)).append("(");
+        sb.append(keyType).append(" key, ").append(getBaseJavaType(getMapValue(entry))).append(" value) {\n");
+        sb.append("        this.").append(name).append(".put(key, value);\n");
+        sb.append("        return this;\n");
+        sb.append("    }\n\n");
+        sb.append("    public ").append(builderName).append(" remove").append(capitalize(name)).append("(");
+        sb.append(keyType).append(" key) {\n");
+        sb.append("        this.").append(name).append(".remove(key);\n");
+        sb.append("        return this;\n");
+        sb.append("    }\n\n");
+    }
+
+    /**
+     * Sets the field's presence bit, or clears it when a message field is set to null
+     */
+    private void appendPresenceUpdate(FieldDescriptorProto field) {
+        String word = getPresenceSlot(message, field);
+        String mask = getPresenceMask(message, field);
+        if (field.getType() == FieldDescriptorProto.Type.TYPE_MESSAGE) {
+            sb.append("        if (value != null) {\n");
+            sb.append("            this.").append(word).append(" |= ").append(mask).append(";\n");
+            sb.append("        } else {\n");
+            sb.append("            this.").append(word).append(" &= ~").append(mask).append(";\n");
+            sb.append("        }\n");
+        } else {
+            sb.append("        this.").append(word).append(" |= ").append(mask).append(";\n");
+        }
+    }
+
+    private void generatePresenceAccessors(FieldDescriptorProto field, String builderName) {
+        String name = field.getName();
+        sb.append("    public boolean has").append(capitalize(name)).append("() {\n");
+        sb.append("        return ").append(getPresenceCheck(message, field, "")).append(";\n");
+        sb.append("    }\n\n");
+        sb.append("    public ").append(builderName).append(" clear").append(capitalize(name)).append("() {\n");
+        sb.append("        this.").append(name).append(" = ").append(getDefaultValue(field, options)).append(";\n");
+        sb.append("        this.").append(getPresenceSlot(message, field)).append(" &= ~");
+        sb.append(getPresenceMask(message, field)).append(";\n");
+        sb.append("        return this;\n");
+        sb.append("    }\n\n");
+    }
+
+    /**
+     * Setting a member replaces whichever member of its oneof was set before
+     */
+    private void appendOneofSet(FieldDescriptorProto field) {
+        String valueSlot = getOneofValueSlot(message, field);
+        if (!isPrimitive(getBaseJavaType(field))) {
+            sb.append("        Objects.requireNonNull(value);\n");
+        }
+        for (StorageSlot slot : getOneofSlots(message, field)) {
+            sb.append("        this.").append(slot.name).append(" = ");
+            if (slot.name.equals(getOneofCaseSlot(message, field))) {
+                sb.append(field.getNumber());
+            } else if (slot.name.equals(valueSlot)) {
+                sb.append(encodeOneofValue(field, "value"));
+            } else {
+                sb.append(slot.defaultValue);
+            }
+            sb.append(";\n");
+        }
+    }
+
+    private void generateOneofClear(FieldDescriptorProto field, String builderName) {
+        sb.append("    public ").append(builderName).append(" clear");
+        sb.append(capitalize(getOneofName(message, field))).append("() {\n");
+        for (StorageSlot slot : getOneofSlots(message, field)) {
+            sb.append("        this.").append(slot.name).append(" = ").append(slot.defaultValue).append(";\n");
+        }
+        sb.append("        return this;\n");
+        sb.append("    }\n\n");
+    }
+
+    /**
+     * Typed setter (or adder) for enum fields, stores the enum's number
+     */
+    private void generateEnumSetter(FieldDescriptorProto field, String builderName) {
+        String name = field.getName();
+        String enumType = getEnumJavaType(field);
+        if (isRepeatedField(field)) {
+            sb.append("    public ").append(builderName).append(" add").append(capitalize(getSingularName(name)));
+            sb.append("(").append(enumType).append(" value) {\n");
+            sb.append("        this.").append(name).append(".add(value.getNumber());\n");
+        } else if (isOneofMember(field)) {
+            sb.append("    public ").append(builderName).append(" set").append(capitalize(name));
+            sb.append("(").append(enumType).append(" value) {\n");
+            sb.append("        return set").append(getAccessorName(field)).append("(value.getNumber());\n");
+            sb.append("    }\n\n");
+            return;
+        } else {
+            sb.append("    public ").append(builderName).append(" set").append(capitalize(name));
+            sb.append("(").append(enumType).append(" value) {\n");
+            sb.append("        this.").append(name).append(" = value.getNumber();\n");
+            if (hasPresenceBit(field)) {
+                appendPresenceUpdate(field);
+            }
+        }
+        sb.append("        return this;\n");
+        sb.append("    }\n\n");
+    }
+
     private void generateGetters() {
         for (FieldDescriptorProto field : message.getFieldList()) {
-            String methodName = "get" + capitalize(field.getName());
-            sb.append("    public ").append(getJavaType(field));
+            if (isOneofMember(field) && isFirstOneofMember(message, field)) {
+                String caseType = message.getName() + "." + capitalize(getOneofName(message, field)) + "Case";
+                sb.append("    public ").append(caseType).append(" get");
+                sb.append(capitalize(getOneofName(message, field))).append("Case() {\n");
+                sb.append("        return ").append(caseType).append(".forNumber(");
+                sb.append(getOneofCaseSlot(message, field)).append(");\n");
+                sb.append("    }\n\n");
+            }
+            if (isEnumField(field) && !isRepeatedField(field)) {
+                String enumType = getEnumJavaType(field);
+                String number = isOneofMember(field) ? "get" + getAccessorName(field) + "()" : field.getName();
+                sb.append("    public ").append(enumType).append(" get").append(capitalize(field.getName()));
+                sb.append("() {\n");
+                sb.append("        ").append(enumType).append(" value = ").append(enumType);
+                sb.append(".forNumber(").append(number).append(");\n");
+                sb.append("        return value == null ? ").append(enumType).append(".UNRECOGNIZED : value;\n");
+                sb.append("    }\n\n");
+            }
+            String methodName = "get" + getAccessorName(field);
+            sb.append("    public ").append(getJavaType(message, field, options));
             sb.append(" ").append(methodName).append("() {\n");
-            sb.append("        return ").append(field.getName()).append(";\n");
+            if (isOneofMember(field)) {
+                String caseCheck = getOneofCaseSlot(message, field) + " == " + field.getNumber();
+                sb.append("        return ").append(caseCheck).append(" ? ");
+                sb.append(decodeOneofValue(field, getOneofValueSlot(message, field))).append(" : ");
+                sb.append(getDefaultValue(field, options)).append(";\n");
+                sb.append("    }\n\n");
+                sb.append("    public boolean has").append(capitalize(field.getName())).append("() {\n");
+                sb.append("        return ").append(caseCheck).append(";\n");
+                sb.append("    }\n\n");
+                continue;
+            }
+            String value = getBuildExpression(field);
+            if (isLazyStringField(field, options)) {
+                value += ".toStringUtf8()";
+            } else if (isLazyMessageField(field, options)) {
+                value = value + " == null ? null : " + value + ".get()";
+            }
+            sb.append("        return ").append(value).append(";\n");
             sb.append("    }\n\n");
         }
     }
 
+    /**
+     * Lazy fields are copied through their raw accessor, keeping the undecoded bytes
+     */
+    private String getRawAccessorSuffix(FieldDescriptorProto field) {
+        if (isLazyStringField(field, options)) {
+            return "Bytes";
+        }
+        return isLazyMessageField(field, options) ? "Lazy" : "";
+    }
+
+    private String getBuildExpression(FieldDescriptorProto field) {
+        if (isArrayContainerField(field, options) || isMapField(message, field)) {
+            return field.getName() + ".build()";
+        }
+        return field.getName();
+    }
+
     private void generateBuildMethod(String className) {
         sb.append("    public ").append(className).append(" build() {\n");
         sb.append("        return new ").append(className).append("(");
-        boolean first = true;
-        for (FieldDescriptorProto field : message.getFieldList()) {
-            if (!first) sb.append(", ");
-            sb.append(field.getName());
-            first = false;
-        }
+        List<String> arguments = mapStorage(message, this::getBuildExpression, slot -> slot.name);
+        sb.append(String.join(", ", arguments));
         sb.append(");\n");
         sb.append("    }\n");
     }
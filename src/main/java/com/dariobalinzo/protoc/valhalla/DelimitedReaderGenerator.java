@@ -0,0 +1,238 @@
+package com.dariobalinzo.protoc.valhalla;
+
+/**
+ * Generates the DelimitedReader iterating length-prefixed message streams,
+ * one per Java package
+ */
+public class DelimitedReaderGenerator {
+
+    static final String CLASS_NAME = "DelimitedReader";
+
+    private final String pkg;
+
+    public DelimitedReaderGenerator(String pkg) {
+        this.pkg = pkg;
+    }
+
+    public String getClassName() {
+        return CLASS_NAME;
+    }
+
+    public String generate() {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append("package ").append(pkg).append(";\n\n");
+        sb.append("import com.google.protobuf.InvalidProtocolBufferException;\n");
+        sb.append("import java.io.Closeable;\n");
+        sb.append("import java.io.IOException;\n");
+        sb.append("import java.io.InputStream;\n");
+        sb.append("import java.io.UncheckedIOException;\n");
+        sb.append("import java.nio.ByteBuffer;\n");
+        sb.append("import java.nio.channels.ReadableByteChannel;\n");
+        sb.append("import java.util.Iterator;\n");
+        sb.append("import java.util.NoSuchElementException;\n");
+        sb.append("import java.util.Spliterator;\n");
+        sb.append("import java.util.Spliterators;\n");
+        sb.append("import java.util.stream.Stream;\n");
+        sb.append("import java.util.stream.StreamSupport;\n\n");
+
+        sb.append("""
+            /**
+             * Iterates a stream of varint length-prefixed messages (writeDelimitedTo format)
+             * Input is read in large chunks into one reusable buffer and every message is
+             * decoded straight out of it, so there is no per-message stream wrapper or
+             * copy. Decoded values never alias the buffer. Channels must be blocking.
+             */
+            public final class DelimitedReader<T> implements Iterator<T>, Closeable {
+
+                @FunctionalInterface
+                public interface Parser<T> {
+                    T parseFrom(byte[] data, int offset, int length) throws IOException;
+                }
+
+                /**
+                 * Largest message accepted by default, 64 MiB like older protobuf-java
+                 * releases. A hostile length prefix fails here instead of growing the
+                 * buffer to the claimed size.
+                 */
+                public static final int DEFAULT_SIZE_LIMIT = 64 << 20;
+
+                private static final int INITIAL_CAPACITY = 8192;
+
+                private final InputStream input;
+                private final ReadableByteChannel channel;
+                private final Parser<T> parser;
+                private byte[] buffer = new byte[INITIAL_CAPACITY];
+                // Channel view of buffer, re-wrapped only when the buffer grows
+                private ByteBuffer view;
+                private int pos;
+                private int end;
+                private T next;
+                private int sizeLimit = DEFAULT_SIZE_LIMIT;
+
+                private DelimitedReader(InputStream input, ReadableByteChannel channel, Parser<T> parser) {
+                    this.input = input;
+                    this.channel = channel;
+                    this.parser = parser;
+                    this.view = channel != null ? ByteBuffer.wrap(buffer) : null;
+                }
+
+                public static <T> DelimitedReader<T> of(InputStream input, Parser<T> parser) {
+                    return new DelimitedReader<>(input, null, parser);
+                }
+
+                public static <T> DelimitedReader<T> of(ReadableByteChannel channel, Parser<T> parser) {
+                    return new DelimitedReader<>(null, channel, parser);
+                }
+
+                /**
+                 * Sets the largest message size accepted, like CodedInputStream.setSizeLimit,
+                 * and returns the previous limit
+                 */
+                public int setSizeLimit(int limit) {
+                    if (limit < 0) {
+                        throw new IllegalArgumentException("Size limit cannot be negative: " + limit);
+                    }
+                    int oldLimit = sizeLimit;
+                    sizeLimit = limit;
+                    return oldLimit;
+                }
+
+                /**
+                 * Returns the next message, or null at a clean end of input
+                 */
+                public T read() throws IOException {
+                    if (next != null) {
+                        T result = next;
+                        next = null;
+                        return result;
+                    }
+                    if (!fill(1)) {
+                        return null;
+                    }
+                    int size = readSize();
+                    if (!fill(size)) {
+                        throw truncated();
+                    }
+                    T value = parser.parseFrom(buffer, pos, size);
+                    pos += size;
+                    return value;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    if (next == null) {
+                        try {
+                            next = read();
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+                    return next != null;
+                }
+
+                @Override
+                public T next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    T result = next;
+                    next = null;
+                    return result;
+                }
+
+                /**
+                 * Sequential stream of the remaining messages, closing it closes the input
+                 */
+                public Stream<T> stream() {
+                    Spliterator<T> spliterator = Spliterators.spliteratorUnknownSize(this,
+                            Spliterator.ORDERED | Spliterator.NONNULL);
+                    return StreamSupport.stream(spliterator, false).onClose(() -> {
+                        try {
+                            close();
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                }
+
+                @Override
+                public void close() throws IOException {
+                    if (input != null) {
+                        input.close();
+                    } else {
+                        channel.close();
+                    }
+                }
+
+                private int readSize() throws IOException {
+                    int size = 0;
+                    for (int shift = 0; shift < 32; shift += 7) {
+                        if (!fill(1)) {
+                            throw truncated();
+                        }
+                        byte b = buffer[pos++];
+                        size |= (b & 0x7F) << shift;
+                        if (b >= 0) {
+                            if (size < 0) {
+                                throw new InvalidProtocolBufferException("Encountered an embedded string or message which claimed to have negative size.");
+                            }
+                            if (size > sizeLimit) {
+                                throw new InvalidProtocolBufferException("Protocol message was too large.  May be malicious.  Use DelimitedReader.setSizeLimit() to increase the size limit.");
+                            }
+                            return size;
+                        }
+                    }
+                    throw new InvalidProtocolBufferException("CodedInputStream encountered a malformed varint.");
+                }
+
+                /**
+                 * Makes at least n unread bytes available, false if the input ends first
+                 */
+                private boolean fill(int n) throws IOException {
+                    if (end - pos >= n) {
+                        return true;
+                    }
+                    if (buffer.length - pos < n) {
+                        // Move the unread tail to the front, growing for large messages
+                        byte[] target = buffer;
+                        if (n > buffer.length) {
+                            target = new byte[Math.max(n, buffer.length * 2)];
+                        }
+                        System.arraycopy(buffer, pos, target, 0, end - pos);
+                        if (target != buffer) {
+                            buffer = target;
+                            if (channel != null) {
+                                view = ByteBuffer.wrap(buffer);
+                            }
+                        }
+                        end -= pos;
+                        pos = 0;
+                    }
+                    while (end - pos < n) {
+                        int read = readInto(end, buffer.length - end);
+                        if (read < 0) {
+                            return false;
+                        }
+                        end += read;
+                    }
+                    return true;
+                }
+
+                private int readInto(int offset, int length) throws IOException {
+                    if (input != null) {
+                        return input.read(buffer, offset, length);
+                    }
+                    view.limit(offset + length).position(offset);
+                    return channel.read(view);
+                }
+
+                private static InvalidProtocolBufferException truncated() {
+                    return new InvalidProtocolBufferException("While parsing a protocol message, the input ended unexpectedly in the middle of a field.");
+                }
+            }
+            """);
+
+        return sb.toString();
+    }
+}
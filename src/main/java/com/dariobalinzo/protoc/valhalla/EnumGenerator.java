@@ -0,0 +1,131 @@
+package com.dariobalinzo.protoc.valhalla;
+
+import com.google.protobuf.DescriptorProtos.*;
+
+import java.util.*;
+
+/**
+ * Generates a Java enum for an EnumDescriptorProto
+ * Fields keep the raw number, the enum is only resolved by the typed accessors
+ */
+public class EnumGenerator {
+
+    /**
+     * Number ranges up to this size get an array lookup, sparser enums a switch
+     */
+    static final int DENSE_RANGE_LIMIT = 1024;
+
+    private final StringBuilder sb = new StringBuilder();
+    private final String pkg;
+    private final EnumDescriptorProto enumType;
+
+    public EnumGenerator(String pkg, EnumDescriptorProto enumType) {
+        this.pkg = pkg;
+        this.enumType = enumType;
+    }
+
+    public String getClassName() {
+        return enumType.getName();
+    }
+
+    public String generate() {
+        String className = getClassName();
+
+        sb.append("package ").append(pkg).append(";\n\n");
+
+        sb.append("""
+            /**
+             * Enum for %s
+             * Message fields store the number, so values unknown to this version of the
+             * schema round-trip unchanged and read back as UNRECOGNIZED
+             */
+            public enum %s {
+
+            """.formatted(className, className));
+
+        // The first value per number is the constant, later ones are aliases of it
+        Map<Integer, EnumValueDescriptorProto> canonical = new LinkedHashMap<>();
+        List<EnumValueDescriptorProto> aliases = new ArrayList<>();
+        for (EnumValueDescriptorProto value : enumType.getValueList()) {
+            if (canonical.putIfAbsent(value.getNumber(), value) != null) {
+                aliases.add(value);
+            }
+        }
+        for (EnumValueDescriptorProto value : canonical.values()) {
+            sb.append("    ").append(value.getName()).append("(").append(value.getNumber()).append("),\n");
+        }
+        sb.append("    UNRECOGNIZED(-1);\n\n");
+
+        for (EnumValueDescriptorProto alias : aliases) {
+            sb.append("    public static final ").append(className).append(" ").append(alias.getName());
+            sb.append(" = ").append(canonical.get(alias.getNumber()).getName()).append(";\n");
+        }
+        if (!aliases.isEmpty()) {
+            sb.append("\n");
+        }
+
+        int min = Collections.min(canonical.keySet());
+        int max = Collections.max(canonical.keySet());
+        boolean dense = (long) max - min < DENSE_RANGE_LIMIT;
+        if (dense) {
+            generateLookupTable(className, min, max);
+        }
+
+        sb.append("""
+                private final int number;
+
+                %s(int number) {
+                    this.number = number;
+                }
+
+                public int getNumber() {
+                    if (this == UNRECOGNIZED) {
+                        throw new IllegalArgumentException("Can't get the number of an unknown enum value.");
+                    }
+                    return number;
+                }
+
+                /**
+                 * Constant for number, or null if it is not known to this version of the schema
+                 */
+                public static %s forNumber(int number) {
+            """.formatted(className, className));
+        if (dense) {
+            sb.append("""
+                        int index = number - MIN_NUMBER;
+                        return index >= 0 && index < BY_NUMBER.length ? BY_NUMBER[index] : null;
+                    }
+                """);
+        } else {
+            sb.append("        switch (number) {\n");
+            for (EnumValueDescriptorProto value : canonical.values()) {
+                sb.append("            case ").append(value.getNumber()).append(":\n");
+                sb.append("                return ").append(value.getName()).append(";\n");
+            }
+            sb.append("            default:\n");
+            sb.append("                return null;\n");
+            sb.append("        }\n");
+            sb.append("    }\n");
+        }
+
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    private void generateLookupTable(String className, int min, int max) {
+        sb.append("""
+                private static final int MIN_NUMBER = %d;
+                // Indexed by number - MIN_NUMBER, null for gaps
+                private static final %s[] BY_NUMBER = new %s[%d];
+
+                static {
+                    for (%s value : values()) {
+                        if (value != UNRECOGNIZED) {
+                            BY_NUMBER[value.number - MIN_NUMBER] = value;
+                        }
+                    }
+                }
+
+            """.formatted(min, className, className, max - min + 1, className));
+    }
+}
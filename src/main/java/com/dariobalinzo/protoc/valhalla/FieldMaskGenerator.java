@@ -0,0 +1,49 @@
+package com.dariobalinzo.protoc.valhalla;
+
+import com.google.protobuf.DescriptorProtos.*;
+
+/**
+ * Generates the XFields constants selecting which fields a projected
+ * parseFrom(data, fields) decodes, one bit per field in declaration order
+ */
+public class FieldMaskGenerator {
+
+    private final String pkg;
+    private final DescriptorProto message;
+
+    public FieldMaskGenerator(String pkg, DescriptorProto message) {
+        this.pkg = pkg;
+        this.message = message;
+    }
+
+    public String getClassName() {
+        return ProtoUtils.getFieldMaskType(message.getName());
+    }
+
+    public String generate() {
+        String className = getClassName();
+        StringBuilder sb = new StringBuilder();
+
+        sb.append("package ").append(pkg).append(";\n\n");
+
+        sb.append("""
+            /**
+             * Field selection for %s.parseFrom(data, fields), combine constants with |
+             * Fields left out of the mask are skipped on the wire and keep their default
+             */
+            public final class %s {
+
+                private %s() {}
+
+            """.formatted(message.getName(), className, className));
+
+        int bit = 0;
+        for (FieldDescriptorProto field : message.getFieldList()) {
+            sb.append("    public static final long ").append(ProtoUtils.getFieldMaskConstant(field));
+            sb.append(" = 1L << ").append(bit++).append(";\n");
+        }
+
+        sb.append("}\n");
+        return sb.toString();
+    }
+}
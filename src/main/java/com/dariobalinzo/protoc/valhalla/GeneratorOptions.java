@@ -0,0 +1,114 @@
+package com.dariobalinzo.protoc.valhalla;
+
+/**
+ * Code generation switches passed through the protoc plugin parameter
+ *
+ * Usage:
+ *   protoc --value_out=. --value_opt=memoize_size message.proto
+ */
+public class GeneratorOptions {
+
+    static final String MEMOIZE_SIZE = "memoize_size";
+    static final String FLATTEN_REPEATED_MESSAGES = "flatten_repeated_messages";
+    static final String LAZY_STRINGS = "lazy_strings";
+    static final String LAZY_MESSAGES = "lazy_messages";
+    static final String STANDALONE_READER = "standalone_reader";
+    static final String STANDALONE_WRITER = "standalone_writer";
+
+    private boolean memoizeSize;
+    private boolean flattenRepeatedMessages;
+    private boolean lazyStrings;
+    private boolean lazyMessages;
+    private boolean standaloneReader;
+    private boolean standaloneWriter;
+
+    private GeneratorOptions() {}
+
+    public static GeneratorOptions defaults() {
+        return new GeneratorOptions();
+    }
+
+    /**
+     * Parses a comma separated list of options, e.g. "memoize_size,flatten_repeated_messages"
+     */
+    public static GeneratorOptions parse(String parameter) {
+        GeneratorOptions options = new GeneratorOptions();
+        if (parameter == null || parameter.isBlank()) {
+            return options;
+        }
+        for (String option : parameter.split(",")) {
+            switch (option.trim()) {
+                case "":
+                    break;
+                case MEMOIZE_SIZE:
+                    options.memoizeSize = true;
+                    break;
+                case FLATTEN_REPEATED_MESSAGES:
+                    options.flattenRepeatedMessages = true;
+                    break;
+                case LAZY_STRINGS:
+                    options.lazyStrings = true;
+                    break;
+                case LAZY_MESSAGES:
+                    options.lazyMessages = true;
+                    break;
+                case STANDALONE_READER:
+                    options.standaloneReader = true;
+                    break;
+                case STANDALONE_WRITER:
+                    options.standaloneWriter = true;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + option.trim());
+            }
+        }
+        return options;
+    }
+
+    /**
+     * Compute the serialized size once in the constructor and keep it in a final field
+     */
+    public boolean isMemoizeSize() {
+        return memoizeSize;
+    }
+
+    /**
+     * Store repeated sub-messages in a generated XArray container backed by X[]
+     * instead of List&lt;X&gt;, so the JVM can lay the elements out flat
+     */
+    public boolean isFlattenRepeatedMessages() {
+        return flattenRepeatedMessages;
+    }
+
+    /**
+     * Keep singular string fields as raw UTF-8 ByteStrings and decode them
+     * in the getter, so parsing never pays for strings that are not read
+     */
+    public boolean isLazyStrings() {
+        return lazyStrings;
+    }
+
+    /**
+     * Keep singular sub-message fields as their wire bytes, parse them on first
+     * getter call and write the original bytes back if they were never replaced
+     */
+    public boolean isLazyMessages() {
+        return lazyMessages;
+    }
+
+    /**
+     * Decode byte[] and heap buffer input with a generated WireReader
+     * instead of going through CodedInputStream
+     */
+    public boolean isStandaloneReader() {
+        return standaloneReader;
+    }
+
+    /**
+     * Encode toByteArray and writeTo(byte[], int) with a generated WireWriter
+     * and precomputed tag bytes instead of going through CodedOutputStream
+     */
+    public boolean isStandaloneWriter() {
+        return standaloneWriter;
+    }
+}
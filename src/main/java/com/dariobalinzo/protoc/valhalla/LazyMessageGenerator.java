@@ -0,0 +1,102 @@
+package com.dariobalinzo.protoc.valhalla;
+
+/**
+ * Generates the LazyMessage holder used by sub-message fields when
+ * lazy_messages is enabled, one per Java package
+ */
+public class LazyMessageGenerator {
+
+    static final String CLASS_NAME = "LazyMessage";
+
+    private final String pkg;
+
+    public LazyMessageGenerator(String pkg) {
+        this.pkg = pkg;
+    }
+
+    public String getClassName() {
+        return CLASS_NAME;
+    }
+
+    public String generate() {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append("package ").append(pkg).append(";\n\n");
+        sb.append("import com.google.protobuf.ByteString;\n");
+        sb.append("import com.google.protobuf.CodedInputStream;\n");
+        sb.append("import java.io.IOException;\n");
+        sb.append("import java.io.UncheckedIOException;\n\n");
+
+        sb.append("""
+            /**
+             * Sub-message kept as its original wire bytes until first access
+             * Deliberately an identity class: it caches the parsed value, which a
+             * value class cannot do. The cache is a benign race, like String.hash,
+             * since the parsed message is immutable.
+             */
+            public final class LazyMessage<T> {
+
+                @FunctionalInterface
+                public interface Parser<T> {
+                    T parseFrom(CodedInputStream input, int depth) throws IOException;
+                }
+
+                private final ByteString bytes;
+                private final int depth;
+                private final Parser<T> parser;
+                private T value;
+
+                private LazyMessage(ByteString bytes, int depth, Parser<T> parser, T value) {
+                    this.bytes = bytes;
+                    this.depth = depth;
+                    this.parser = parser;
+                    this.value = value;
+                }
+
+                /**
+                 * Wraps an unparsed payload, nothing is decoded until get(). depth is the
+                 * nesting level the payload was found at, so a deferred parse still hits
+                 * the recursion limit where an eager one would.
+                 */
+                public static <T> LazyMessage<T> ofBytes(ByteString bytes, int depth, Parser<T> parser) {
+                    return new LazyMessage<>(bytes, depth, parser, null);
+                }
+
+                public static <T> LazyMessage<T> of(T value) {
+                    return new LazyMessage<>(null, 0, null, value);
+                }
+
+                public T get() {
+                    T result = value;
+                    if (result == null) {
+                        try {
+                            result = parser.parseFrom(bytes.newCodedInput(), depth);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException("Malformed lazy sub-message", e);
+                        }
+                        value = result;
+                    }
+                    return result;
+                }
+
+                /**
+                 * True when the original wire bytes are available and can be written as-is
+                 */
+                public boolean hasBytes() {
+                    return bytes != null;
+                }
+
+                public ByteString getBytes() {
+                    return bytes;
+                }
+
+                @Override
+                public String toString() {
+                    return String.valueOf(get());
+                }
+            }
+            """);
+
+        return sb.toString();
+    }
+}
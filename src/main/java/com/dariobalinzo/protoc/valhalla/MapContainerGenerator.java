@@ -0,0 +1,408 @@
+package com.dariobalinzo.protoc.valhalla;
+
+import java.util.Arrays;
+
+/**
+ * Generates the immutable map containers (IntLongMap, StringObjectMap, ...) used
+ * for map fields, one per Java package and key/value kind
+ */
+public class MapContainerGenerator {
+
+    private final String pkg;
+    private final String keyType;
+    private final String valueType;
+
+    /**
+     * keyType is int, long or String, valueType a primitive or Object
+     */
+    public MapContainerGenerator(String pkg, String keyType, String valueType) {
+        this.pkg = pkg;
+        this.keyType = keyType;
+        this.valueType = valueType;
+    }
+
+    public String getClassName() {
+        return ProtoUtils.getMapContainerClassName(keyType, valueType);
+    }
+
+    public String generate() {
+        String className = getClassName();
+        boolean generic = valueType.equals("Object");
+        boolean referenceKey = keyType.equals("String");
+        String typeParameter = generic ? "<V>" : "";
+        String value = generic ? "V" : valueType;
+        StringBuilder sb = new StringBuilder();
+
+        sb.append("package ").append(pkg).append(";\n\n");
+        sb.append("import java.util.Arrays;\n");
+        sb.append("import java.util.Collections;\n");
+        sb.append("import java.util.LinkedHashMap;\n");
+        sb.append("import java.util.Map;\n");
+        sb.append("import java.util.Objects;\n\n");
+
+        // 1 class, 2 type parameter, 3 key, 4 value, 5 value array element, 6 boxed key,
+        // 7 boxed value, 8 static type parameter, 9 diamond, 10 wildcard
+        Object[] types = {
+                className, typeParameter, keyType, value, valueType, box(keyType), box(value),
+                generic ? "<V> " : "", generic ? "<>" : "", generic ? "<?>" : ""
+        };
+
+        sb.append("""
+            /**
+             * Immutable map field with %3$s keys and %4$s values
+             * Keys and values are stored unboxed in two parallel arrays, in the order the
+             * keys were first put, plus an open-addressing table of entry indexes for
+             * lookups - no per-entry objects and no boxing
+             */
+            public value class %1$s%2$s {
+
+                private static final %3$s[] NO_KEYS = new %3$s[0];
+                private static final %5$s[] NO_VALUES = new %5$s[0];
+                // A single empty slot, lookups on an empty map end at once
+                private static final int[] NO_TABLE = new int[1];
+
+                private final %3$s[] keys;
+                private final %5$s[] values;
+                // Power-of-two sized, each slot holds an entry index + 1, or 0 if empty
+                private final int[] table;
+
+                private %1$s(%3$s[] keys, %5$s[] values, int[] table) {
+                    this.keys = keys;
+                    this.values = values;
+                    this.table = table;
+                }
+
+                public static %8$s%1$s%2$s of() {
+                    return new %1$s%9$s(NO_KEYS, NO_VALUES, NO_TABLE);
+                }
+
+                public static %8$sBuilder%2$s newBuilder() {
+                    return new Builder%9$s();
+                }
+
+                public int size() {
+                    return keys.length;
+                }
+
+                public boolean isEmpty() {
+                    return keys.length == 0;
+                }
+
+                public boolean containsKey(%3$s key) {
+                    return find(table, keys, key) >= 0;
+                }
+
+            """.formatted(types));
+
+        if (generic) {
+            sb.append("""
+                    /**
+                     * Value for key, or null if the key is not present
+                     */
+                    public V get(%3$s key) {
+                        return getOrDefault(key, null);
+                    }
+
+                """.formatted(types));
+        }
+
+        sb.append("""
+                public %4$s getOrDefault(%3$s key, %4$s defaultValue) {
+                    int index = find(table, keys, key);
+                    return index < 0 ? defaultValue : valueAt(index);
+                }
+
+                public %4$s getOrThrow(%3$s key) {
+                    int index = find(table, keys, key);
+                    if (index < 0) {
+                        throw new IllegalArgumentException("No map entry for key " + key);
+                    }
+                    return valueAt(index);
+                }
+
+                /**
+                 * Key of the index-th entry, for iterating without entry objects
+                 */
+                public %3$s keyAt(int index) {
+                    return keys[index];
+                }
+
+            """.formatted(types));
+        if (generic) {
+            sb.append("    @SuppressWarnings(\"unchecked\")\n");
+        }
+        sb.append("""
+                public %4$s valueAt(int index) {
+                    return %11$s;
+                }
+
+                public void forEach(EntryConsumer%2$s action) {
+                    for (int i = 0; i < keys.length; i++) {
+                        action.accept(keys[i], valueAt(i));
+                    }
+                }
+
+                /**
+                 * Boxed copy in entry order, for APIs that need a java.util.Map
+                 */
+                public Map<%6$s, %7$s> toMap() {
+                    Map<%6$s, %7$s> map = new LinkedHashMap<>();
+                    forEach(map::put);
+                    return Collections.unmodifiableMap(map);
+                }
+
+                /**
+                 * Entry index of key, or -1, probing linearly from the key's hash
+                 */
+                private static int find(int[] table, %3$s[] keys, %3$s key) {
+                    int mask = table.length - 1;
+                    for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+                        int entry = table[slot];
+                        if (entry == 0) {
+                            return -1;
+                        }
+                        if (sameKey(keys[entry - 1], key)) {
+                            return entry - 1;
+                        }
+                    }
+                }
+
+                private static int hash(%3$s key) {
+                    int h = keyHash(key) * 0x9E3779B9;
+                    return h ^ (h >>> 16);
+                }
+
+                private static int keyHash(%3$s key) {
+                    return %12$s;
+                }
+
+                private static boolean sameKey(%3$s a, %3$s b) {
+                    return %13$s;
+                }
+
+                private static boolean sameValue(%5$s a, %5$s b) {
+                    return %14$s;
+                }
+
+                private static int valueHash(%5$s value) {
+                    return %15$s;
+                }
+
+                @Override
+                public boolean equals(Object o) {
+                    if (!(o instanceof %1$s%10$s other) || other.keys.length != keys.length) {
+                        return false;
+                    }
+                    for (int i = 0; i < keys.length; i++) {
+                        int index = find(other.table, other.keys, keys[i]);
+                        if (index < 0 || !sameValue(values[i], other.values[index])) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }
+
+                /**
+                 * Order-independent, like java.util.Map
+                 */
+                @Override
+                public int hashCode() {
+                    int hash = 0;
+                    for (int i = 0; i < keys.length; i++) {
+                        hash += keyHash(keys[i]) ^ valueHash(values[i]);
+                    }
+                    return hash;
+                }
+
+                @Override
+                public String toString() {
+                    StringBuilder sb = new StringBuilder("{");
+                    for (int i = 0; i < keys.length; i++) {
+                        if (i > 0) {
+                            sb.append(", ");
+                        }
+                        sb.append(keys[i]).append('=').append(values[i]);
+                    }
+                    return sb.append('}').toString();
+                }
+
+                @FunctionalInterface
+                public interface EntryConsumer%2$s {
+                    void accept(%3$s key, %4$s value);
+                }
+
+                /**
+                 * Growable map used by parsers and message builders
+                 * put() on a present key replaces its value in place, so a key repeated on
+                 * the wire keeps its first position and its last value. build() trims the
+                 * arrays to the exact size and reuses the lookup table layout.
+                 */
+                public static final class Builder%2$s {
+
+                    private %3$s[] keys = NO_KEYS;
+                    private %5$s[] values = NO_VALUES;
+                    private int[] table = NO_TABLE;
+                    private int size;
+
+                    private Builder() {}
+
+                    public Builder%2$s put(%3$s key, %4$s value) {
+            """.formatted(append(types, generic ? "(V) values[index]" : "values[index]",
+                keyHash(), referenceKey ? "a.equals(b)" : "a == b", sameValue(), valueHash())));
+        if (referenceKey) {
+            sb.append("            Objects.requireNonNull(key);\n");
+        }
+        if (generic) {
+            sb.append("            Objects.requireNonNull(value);\n");
+        }
+        sb.append("""
+                        int index = find(table, keys, key);
+                        if (index >= 0) {
+                            values[index] = value;
+                            return this;
+                        }
+                        if (size == keys.length) {
+                            grow(size + 1);
+                        }
+                        keys[size] = key;
+                        values[size] = value;
+                        insert(size++);
+                        return this;
+                    }
+
+                    public Builder%2$s putAll(%1$s%2$s map) {
+                        for (int i = 0; i < map.keys.length; i++) {
+                            put(map.keys[i], map.valueAt(i));
+                        }
+                        return this;
+                    }
+
+                    /**
+                     * Removes key if present, shifting later entries down to keep their order
+                     */
+                    public Builder%2$s remove(%3$s key) {
+                        int index = find(table, keys, key);
+                        if (index < 0) {
+                            return this;
+                        }
+                        System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+                        System.arraycopy(values, index + 1, values, index, size - index - 1);
+                        size--;
+            """.formatted(types));
+        appendClearRange(sb, referenceKey, generic, "size", "size + 1");
+        sb.append("""
+                        rehash();
+                        return this;
+                    }
+
+                    public Builder%2$s clear() {
+            """.formatted(types));
+        appendClearRange(sb, referenceKey, generic, "0", "size");
+        sb.append("""
+                        size = 0;
+                        Arrays.fill(table, 0);
+                        return this;
+                    }
+
+                    public int size() {
+                        return size;
+                    }
+
+                    public boolean isEmpty() {
+                        return size == 0;
+                    }
+
+                    public %1$s%2$s build() {
+                        if (size == 0) {
+                            return of();
+                        }
+                        return new %1$s%9$s(Arrays.copyOf(keys, size), Arrays.copyOf(values, size), table.clone());
+                    }
+
+                    private void grow(int capacity) {
+                        capacity = Math.max(capacity, Math.max(8, keys.length * 2));
+                        keys = Arrays.copyOf(keys, capacity);
+                        values = Arrays.copyOf(values, capacity);
+                        // At most half full, so probe runs stay short
+                        table = new int[Integer.highestOneBit(capacity * 2 - 1) << 1];
+                        rehash();
+                    }
+
+                    private void rehash() {
+                        Arrays.fill(table, 0);
+                        for (int i = 0; i < size; i++) {
+                            insert(i);
+                        }
+                    }
+
+                    private void insert(int index) {
+                        int mask = table.length - 1;
+                        int slot = hash(keys[index]) & mask;
+                        while (table[slot] != 0) {
+                            slot = (slot + 1) & mask;
+                        }
+                        table[slot] = index + 1;
+                    }
+                }
+            }
+            """.formatted(types));
+
+        return sb.toString();
+    }
+
+    /**
+     * Drops references to removed keys and values so they can be collected
+     */
+    private void appendClearRange(StringBuilder sb, boolean referenceKey, boolean generic, String from, String to) {
+        if (referenceKey) {
+            sb.append("            Arrays.fill(keys, ").append(from).append(", ").append(to).append(", null);\n");
+        }
+        if (generic) {
+            sb.append("            Arrays.fill(values, ").append(from).append(", ").append(to).append(", null);\n");
+        }
+    }
+
+    private String keyHash() {
+        return keyType.equals("String") ? "key.hashCode()" : box(keyType) + ".hashCode(key)";
+    }
+
+    private String sameValue() {
+        switch (valueType) {
+            case "float":
+                return "Float.floatToIntBits(a) == Float.floatToIntBits(b)";
+            case "double":
+                return "Double.doubleToLongBits(a) == Double.doubleToLongBits(b)";
+            case "Object":
+                return "a.equals(b)";
+            default:
+                return "a == b";
+        }
+    }
+
+    private String valueHash() {
+        return valueType.equals("Object") ? "value.hashCode()" : box(valueType) + ".hashCode(value)";
+    }
+
+    private static String box(String type) {
+        switch (type) {
+            case "int":
+                return "Integer";
+            case "long":
+                return "Long";
+            case "float":
+                return "Float";
+            case "double":
+                return "Double";
+            case "boolean":
+                return "Boolean";
+            default:
+                return type;
+        }
+    }
+
+    private static Object[] append(Object[] values, Object... more) {
+        Object[] result = Arrays.copyOf(values, values.length + more.length);
+        System.arraycopy(more, 0, result, values.length, more.length);
+        return result;
+    }
+}
@@ -0,0 +1,180 @@
+package com.dariobalinzo.protoc.valhalla;
+
+/**
+ * Generates the immutable array container used for repeated fields of a
+ * message type when flatten_repeated_messages is enabled
+ */
+public class MessageArrayGenerator {
+
+    private final String pkg;
+    private final String messageType;
+
+    public MessageArrayGenerator(String pkg, String messageType) {
+        this.pkg = pkg;
+        this.messageType = messageType;
+    }
+
+    public String getClassName() {
+        return ProtoUtils.getMessageArrayType(messageType);
+    }
+
+    public String generate() {
+        String className = getClassName();
+        StringBuilder sb = new StringBuilder();
+
+        sb.append("package ").append(pkg).append(";\n\n");
+        sb.append("import java.util.Arrays;\n");
+        sb.append("import java.util.Iterator;\n");
+        sb.append("import java.util.List;\n");
+        sb.append("import java.util.Objects;\n");
+        sb.append("import java.util.stream.Stream;\n\n");
+
+        sb.append("""
+            /**
+             * Immutable repeated %2$s field
+             * Elements live in one %2$s[] that never holds null, so the JVM can
+             * flatten the value objects into a single contiguous block
+             */
+            public value class %1$s implements Iterable<%2$s> {
+
+                private static final %2$s[] NO_ELEMENTS = new %2$s[0];
+
+                private final %2$s[] elements;
+
+                private %1$s(%2$s[] elements) {
+                    this.elements = elements;
+                }
+
+                public static %1$s of() {
+                    return new %1$s(NO_ELEMENTS);
+                }
+
+                public static %1$s of(%2$s... values) {
+                    return newBuilder().addAll(values).build();
+                }
+
+                public static %1$s copyOf(Iterable<%2$s> values) {
+                    Builder builder = newBuilder();
+                    for (%2$s value : values) {
+                        builder.add(value);
+                    }
+                    return builder.build();
+                }
+
+                public static Builder newBuilder() {
+                    return new Builder();
+                }
+
+                public %2$s get(int index) {
+                    return elements[index];
+                }
+
+                public int size() {
+                    return elements.length;
+                }
+
+                public boolean isEmpty() {
+                    return elements.length == 0;
+                }
+
+                public %2$s[] toArray() {
+                    return elements.clone();
+                }
+
+                /**
+                 * Read-only list view, no copy
+                 */
+                public List<%2$s> asList() {
+                    return List.of(elements);
+                }
+
+                public Stream<%2$s> stream() {
+                    return Arrays.stream(elements);
+                }
+
+                @Override
+                public Iterator<%2$s> iterator() {
+                    return Arrays.asList(elements).iterator();
+                }
+
+                @Override
+                public boolean equals(Object o) {
+                    return o instanceof %1$s other && Arrays.equals(elements, other.elements);
+                }
+
+                @Override
+                public int hashCode() {
+                    return Arrays.hashCode(elements);
+                }
+
+                @Override
+                public String toString() {
+                    return Arrays.toString(elements);
+                }
+
+                /**
+                 * Growable buffer used by parsers and message builders
+                 * build() trims to an exact-size array
+                 */
+                public static final class Builder {
+
+                    private %2$s[] elements = NO_ELEMENTS;
+                    private int size;
+
+                    private Builder() {}
+
+                    public Builder add(%2$s value) {
+                        Objects.requireNonNull(value);
+                        if (size == elements.length) {
+                            ensureCapacity(size + 1);
+                        }
+                        elements[size++] = value;
+                        return this;
+                    }
+
+                    public Builder addAll(%2$s... values) {
+                        ensureCapacity(size + values.length);
+                        for (%2$s value : values) {
+                            add(value);
+                        }
+                        return this;
+                    }
+
+                    public Builder addAll(%1$s values) {
+                        ensureCapacity(size + values.elements.length);
+                        System.arraycopy(values.elements, 0, elements, size, values.elements.length);
+                        size += values.elements.length;
+                        return this;
+                    }
+
+                    public Builder ensureCapacity(int capacity) {
+                        if (capacity > elements.length) {
+                            elements = Arrays.copyOf(elements, Math.max(capacity, Math.max(8, elements.length * 2)));
+                        }
+                        return this;
+                    }
+
+                    public Builder clear() {
+                        Arrays.fill(elements, 0, size, null);
+                        size = 0;
+                        return this;
+                    }
+
+                    public int size() {
+                        return size;
+                    }
+
+                    public boolean isEmpty() {
+                        return size == 0;
+                    }
+
+                    public %1$s build() {
+                        return new %1$s(size == 0 ? NO_ELEMENTS : Arrays.copyOf(elements, size));
+                    }
+                }
+            }
+            """.formatted(className, messageType));
+
+        return sb.toString();
+    }
+}
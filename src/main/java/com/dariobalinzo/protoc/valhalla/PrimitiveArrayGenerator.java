@@ -0,0 +1,181 @@
+package com.dariobalinzo.protoc.valhalla;
+
+/**
+ * Generates the immutable primitive containers (IntArray, DoubleArray, ...)
+ * used for repeated scalar fields, one per Java package and element type
+ */
+public class PrimitiveArrayGenerator {
+
+    private final String pkg;
+    private final String primitiveType;
+
+    public PrimitiveArrayGenerator(String pkg, String primitiveType) {
+        this.pkg = pkg;
+        this.primitiveType = primitiveType;
+    }
+
+    public String getClassName() {
+        return ProtoUtils.getPrimitiveArrayType(primitiveType);
+    }
+
+    public String generate() {
+        String className = getClassName();
+        StringBuilder sb = new StringBuilder();
+
+        sb.append("package ").append(pkg).append(";\n\n");
+        sb.append("import java.util.Arrays;\n");
+        String streamType = getStreamType();
+        if (streamType != null) {
+            sb.append("import java.util.stream.").append(streamType).append(";\n");
+        }
+        if (primitiveType.equals("float")) {
+            sb.append("import java.util.stream.IntStream;\n");
+        }
+        sb.append("\n");
+
+        sb.append("""
+            /**
+             * Immutable repeated %2$s field
+             * Elements are stored unboxed in a single %2$s[] - no per-element objects
+             */
+            public value class %1$s {
+
+                private static final %2$s[] NO_ELEMENTS = new %2$s[0];
+
+                private final %2$s[] elements;
+
+                private %1$s(%2$s[] elements) {
+                    this.elements = elements;
+                }
+
+                public static %1$s of() {
+                    return new %1$s(NO_ELEMENTS);
+                }
+
+                public static %1$s of(%2$s... values) {
+                    return new %1$s(values.length == 0 ? NO_ELEMENTS : values.clone());
+                }
+
+                public static Builder newBuilder() {
+                    return new Builder();
+                }
+
+                public %2$s get(int index) {
+                    return elements[index];
+                }
+
+                public int size() {
+                    return elements.length;
+                }
+
+                public boolean isEmpty() {
+                    return elements.length == 0;
+                }
+
+                public %2$s[] toArray() {
+                    return elements.clone();
+                }
+
+            """.formatted(className, primitiveType));
+
+        if (streamType != null) {
+            generateStream(sb, streamType);
+        }
+
+        sb.append("""
+                @Override
+                public boolean equals(Object o) {
+                    return o instanceof %1$s other && Arrays.equals(elements, other.elements);
+                }
+
+                @Override
+                public int hashCode() {
+                    return Arrays.hashCode(elements);
+                }
+
+                @Override
+                public String toString() {
+                    return Arrays.toString(elements);
+                }
+
+                /**
+                 * Growable buffer used by parsers and message builders
+                 * Appends without boxing, build() trims to an exact-size array
+                 */
+                public static final class Builder {
+
+                    private %2$s[] elements = NO_ELEMENTS;
+                    private int size;
+
+                    private Builder() {}
+
+                    public Builder add(%2$s value) {
+                        if (size == elements.length) {
+                            ensureCapacity(size + 1);
+                        }
+                        elements[size++] = value;
+                        return this;
+                    }
+
+                    public Builder addAll(%1$s values) {
+                        ensureCapacity(size + values.elements.length);
+                        System.arraycopy(values.elements, 0, elements, size, values.elements.length);
+                        size += values.elements.length;
+                        return this;
+                    }
+
+                    public Builder ensureCapacity(int capacity) {
+                        if (capacity > elements.length) {
+                            elements = Arrays.copyOf(elements, Math.max(capacity, Math.max(8, elements.length * 2)));
+                        }
+                        return this;
+                    }
+
+                    public Builder clear() {
+                        size = 0;
+                        return this;
+                    }
+
+                    public int size() {
+                        return size;
+                    }
+
+                    public boolean isEmpty() {
+                        return size == 0;
+                    }
+
+                    public %1$s build() {
+                        return new %1$s(size == 0 ? NO_ELEMENTS : Arrays.copyOf(elements, size));
+                    }
+                }
+            }
+            """.formatted(className, primitiveType));
+
+        return sb.toString();
+    }
+
+    private void generateStream(StringBuilder sb, String streamType) {
+        sb.append("    public ").append(streamType).append(" stream() {\n");
+        if (primitiveType.equals("float")) {
+            // No FloatStream in the JDK, widen lazily
+            sb.append("        return IntStream.range(0, elements.length).mapToDouble(i -> elements[i]);\n");
+        } else {
+            sb.append("        return Arrays.stream(elements);\n");
+        }
+        sb.append("    }\n\n");
+    }
+
+    private String getStreamType() {
+        switch (primitiveType) {
+            case "int":
+                return "IntStream";
+            case "long":
+                return "LongStream";
+            case "float":
+            case "double":
+                return "DoubleStream";
+            default:
+                return null;
+        }
+    }
+}
@@ -3,23 +3,483 @@ package com.dariobalinzo.protoc.valhalla;
 
 import com.google.protobuf.DescriptorProtos.FieldDescriptorProto;
 import com.google.protobuf.DescriptorProtos.DescriptorProto;
+import com.google.protobuf.DescriptorProtos.EnumDescriptorProto;
 import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
 class ProtoUtils {
 
 
     static String getJavaType(FieldDescriptorProto field) {
         String baseJavaType = getBaseJavaType(field);
+        if (isPrimitiveRepeatedField(field)) {
+            return getPrimitiveArrayType(baseJavaType);
+        }
         if (isRepeatedField(field)) {
-            return "List<" + boxPrimitive(baseJavaType) + ">";
+            return "List<" + baseJavaType + ">";
         }
         return baseJavaType;
     }
 
+    static String getJavaType(FieldDescriptorProto field, GeneratorOptions options) {
+        if (isMessageArrayField(field, options)) {
+            return getMessageArrayType(getBaseJavaType(field));
+        }
+        return getJavaType(field);
+    }
+
+    /**
+     * Repeated scalars are stored in generated primitive containers instead of boxed lists
+     */
+    static boolean isPrimitiveRepeatedField(FieldDescriptorProto field) {
+        return isRepeatedField(field) && isPrimitive(getBaseJavaType(field));
+    }
+
+    /**
+     * With flatten_repeated_messages, repeated sub-messages use a generated array container
+     */
+    static boolean isMessageArrayField(FieldDescriptorProto field, GeneratorOptions options) {
+        return options.isFlattenRepeatedMessages()
+                && isRepeatedField(field)
+                && field.getType() == FieldDescriptorProto.Type.TYPE_MESSAGE;
+    }
+
+    /**
+     * With lazy_strings, singular strings are stored as undecoded UTF-8 bytes
+     */
+    static boolean isLazyStringField(FieldDescriptorProto field, GeneratorOptions options) {
+        return options.isLazyStrings()
+                && !isRepeatedField(field)
+                && !isOneofMember(field)
+                && field.getType() == FieldDescriptorProto.Type.TYPE_STRING;
+    }
+
+    /**
+     * With lazy_messages, singular sub-messages are stored in a LazyMessage holder
+     */
+    static boolean isLazyMessageField(FieldDescriptorProto field, GeneratorOptions options) {
+        return options.isLazyMessages()
+                && !isRepeatedField(field)
+                && !isOneofMember(field)
+                && field.getType() == FieldDescriptorProto.Type.TYPE_MESSAGE;
+    }
+
+    /**
+     * Members of a real oneof share its storage slots. proto3 optional fields are
+     * wrapped in a synthetic oneof by protoc but are stored like any other field.
+     */
+    static boolean isOneofMember(FieldDescriptorProto field) {
+        return field.hasOneofIndex() && !field.getProto3Optional();
+    }
+
+    /**
+     * Slots are declared where the oneof's first member appears in the message
+     */
+    static boolean isFirstOneofMember(DescriptorProto message, FieldDescriptorProto field) {
+        for (FieldDescriptorProto other : message.getFieldList()) {
+            if (isOneofMember(other) && other.getOneofIndex() == field.getOneofIndex()) {
+                return other == field;
+            }
+        }
+        return false;
+    }
+
+    static String getOneofName(DescriptorProto message, FieldDescriptorProto field) {
+        return message.getOneofDecl(field.getOneofIndex()).getName();
+    }
+
+    /**
+     * payload -> payloadCase, holding the field number of the set member or 0
+     */
+    static String getOneofCaseSlot(DescriptorProto message, FieldDescriptorProto field) {
+        return getOneofName(message, field) + "Case";
+    }
+
+    /**
+     * Numeric, bool and enum members share one long, the others one Object
+     */
+    static String getOneofValueSlot(DescriptorProto message, FieldDescriptorProto field) {
+        return getOneofName(message, field) + (isPrimitive(getBaseJavaType(field)) ? "Bits" : "Ref");
+    }
+
+    /**
+     * Expression storing a member value into its slot type
+     */
+    static String encodeOneofValue(FieldDescriptorProto field, String value) {
+        switch (getBaseJavaType(field)) {
+            case "int":
+            case "long":
+                return value;
+            case "float":
+                return "Float.floatToRawIntBits(" + value + ")";
+            case "double":
+                return "Double.doubleToRawLongBits(" + value + ")";
+            case "boolean":
+                return "(" + value + " ? 1L : 0L)";
+            default:
+                return value;
+        }
+    }
+
+    /**
+     * Expression reading a member value back out of its slot
+     */
+    static String decodeOneofValue(FieldDescriptorProto field, String slot) {
+        String type = getBaseJavaType(field);
+        switch (type) {
+            case "int":
+                return "(int) " + slot;
+            case "long":
+                return slot;
+            case "float":
+                return "Float.intBitsToFloat((int) " + slot + ")";
+            case "double":
+                return "Double.longBitsToDouble(" + slot + ")";
+            case "boolean":
+                return "(" + slot + " != 0)";
+            default:
+                return "((" + type + ") " + slot + ")";
+        }
+    }
+
+    /**
+     * Storage field not declared by a single proto field: a oneof's slots (see
+     * getOneofSlots) or a presence bitmask word (see getPresenceSlots, oneofIndex -1)
+     */
+    static final class StorageSlot {
+        final int oneofIndex;
+        final String type;
+        final String name;
+        final String defaultValue;
+
+        StorageSlot(int oneofIndex, String type, String name, String defaultValue) {
+            this.oneofIndex = oneofIndex;
+            this.type = type;
+            this.name = name;
+            this.defaultValue = defaultValue;
+        }
+    }
+
+    static List<FieldDescriptorProto> getOneofMembers(DescriptorProto message, FieldDescriptorProto member) {
+        List<FieldDescriptorProto> members = new ArrayList<>();
+        for (FieldDescriptorProto field : message.getFieldList()) {
+            if (isOneofMember(field) && field.getOneofIndex() == member.getOneofIndex()) {
+                members.add(field);
+            }
+        }
+        return members;
+    }
+
+    /**
+     * The case int, plus the long and Object slots only if some member needs them
+     */
+    static List<StorageSlot> getOneofSlots(DescriptorProto message, FieldDescriptorProto member) {
+        boolean bits = false;
+        boolean ref = false;
+        for (FieldDescriptorProto field : getOneofMembers(message, member)) {
+            if (isPrimitive(getBaseJavaType(field))) {
+                bits = true;
+            } else {
+                ref = true;
+            }
+        }
+        int index = member.getOneofIndex();
+        String name = getOneofName(message, member);
+        List<StorageSlot> slots = new ArrayList<>();
+        slots.add(new StorageSlot(index, "int", name + "Case", "0"));
+        if (bits) {
+            slots.add(new StorageSlot(index, "long", name + "Bits", "0L"));
+        }
+        if (ref) {
+            slots.add(new StorageSlot(index, "Object", name + "Ref", "null"));
+        }
+        return slots;
+    }
+
+    /**
+     * One entry per stored value in constructor order: a field maps through fieldEntry,
+     * a oneof contributes its slots through slotEntry where its first member is declared,
+     * and the presence bitmask words come last, also through slotEntry
+     */
+    static List<String> mapStorage(DescriptorProto message,
+                                   Function<FieldDescriptorProto, String> fieldEntry,
+                                   Function<StorageSlot, String> slotEntry) {
+        List<String> entries = new ArrayList<>();
+        for (FieldDescriptorProto field : message.getFieldList()) {
+            if (!isOneofMember(field)) {
+                entries.add(fieldEntry.apply(field));
+            } else if (isFirstOneofMember(message, field)) {
+                for (StorageSlot slot : getOneofSlots(message, field)) {
+                    entries.add(slotEntry.apply(slot));
+                }
+            }
+        }
+        for (StorageSlot slot : getPresenceSlots(message)) {
+            entries.add(slotEntry.apply(slot));
+        }
+        return entries;
+    }
+
+    /**
+     * Singular message fields and proto3 optional fields track whether they are set
+     * in a bit of the message's presence bitmask, so optional scalars stay unboxed.
+     * Oneof members already have their oneof's case.
+     */
+    static boolean hasPresenceBit(FieldDescriptorProto field) {
+        return !isRepeatedField(field)
+                && !isOneofMember(field)
+                && (field.getProto3Optional() || field.getType() == FieldDescriptorProto.Type.TYPE_MESSAGE);
+    }
+
+    private static int getPresenceIndex(DescriptorProto message, FieldDescriptorProto field) {
+        int index = 0;
+        for (FieldDescriptorProto other : message.getFieldList()) {
+            if (other == field) {
+                return index;
+            }
+            if (hasPresenceBit(other)) {
+                index++;
+            }
+        }
+        throw new IllegalArgumentException("Field " + field.getName() + " is not in " + message.getName());
+    }
+
+    /**
+     * A single int for up to 32 presence bits, otherwise longs: presenceBits,
+     * presenceBits1, ... None if no field has presence.
+     */
+    static List<StorageSlot> getPresenceSlots(DescriptorProto message) {
+        int count = 0;
+        for (FieldDescriptorProto field : message.getFieldList()) {
+            if (hasPresenceBit(field)) {
+                count++;
+            }
+        }
+        List<StorageSlot> slots = new ArrayList<>();
+        if (count == 0) {
+            return slots;
+        }
+        if (count <= 32) {
+            slots.add(new StorageSlot(-1, "int", "presenceBits", "0"));
+            return slots;
+        }
+        for (int word = 0; word * 64 < count; word++) {
+            slots.add(new StorageSlot(-1, "long", "presenceBits" + (word == 0 ? "" : word), "0L"));
+        }
+        return slots;
+    }
+
+    static String getPresenceSlot(DescriptorProto message, FieldDescriptorProto field) {
+        int word = getPresenceIndex(message, field) / 64;
+        return getPresenceSlots(message).get(word).name;
+    }
+
+    /**
+     * (1 << 3), or (1L << 3) in a long word
+     */
+    static String getPresenceMask(DescriptorProto message, FieldDescriptorProto field) {
+        int index = getPresenceIndex(message, field);
+        boolean wide = getPresenceSlots(message).get(0).type.equals("long");
+        return wide ? "(1L << " + (index % 64) + ")" : "(1 << " + index + ")";
+    }
+
+    /**
+     * Presence test of field, reading the bitmask through receiver ("this." or "")
+     */
+    static String getPresenceCheck(DescriptorProto message, FieldDescriptorProto field, String receiver) {
+        return "(" + receiver + getPresenceSlot(message, field) + " & " + getPresenceMask(message, field) + ") != 0";
+    }
+
+    /**
+     * The synthetic FooEntry message of a map field, or null if field is not a map
+     */
+    static DescriptorProto getMapEntry(DescriptorProto message, FieldDescriptorProto field) {
+        if (!isRepeatedField(field) || field.getType() != FieldDescriptorProto.Type.TYPE_MESSAGE) {
+            return null;
+        }
+        String typeName = field.getTypeName();
+        String entryName = typeName.substring(typeName.lastIndexOf('.') + 1);
+        for (DescriptorProto nested : message.getNestedTypeList()) {
+            if (nested.getName().equals(entryName) && nested.getOptions().getMapEntry()) {
+                return nested;
+            }
+        }
+        return null;
+    }
+
+    static boolean isMapField(DescriptorProto message, FieldDescriptorProto field) {
+        return getMapEntry(message, field) != null;
+    }
+
+    /**
+     * Field 1 of a map entry
+     */
+    static FieldDescriptorProto getMapKey(DescriptorProto entry) {
+        return getMapEntryField(entry, 1);
+    }
+
+    /**
+     * Field 2 of a map entry
+     */
+    static FieldDescriptorProto getMapValue(DescriptorProto entry) {
+        return getMapEntryField(entry, 2);
+    }
+
+    private static FieldDescriptorProto getMapEntryField(DescriptorProto entry, int number) {
+        for (FieldDescriptorProto field : entry.getFieldList()) {
+            if (field.getNumber() == number) {
+                return field;
+            }
+        }
+        throw new IllegalArgumentException("Map entry " + entry.getName() + " has no field " + number);
+    }
+
+    /**
+     * Containers are keyed by int, long or String. bool keys are held as 0 and 1.
+     */
+    static String getMapKeyType(DescriptorProto entry) {
+        String type = getBaseJavaType(getMapKey(entry));
+        return type.equals("boolean") ? "int" : type;
+    }
+
+    /**
+     * Primitive values are stored unboxed, strings, bytes and messages as Object
+     */
+    static String getMapValueType(DescriptorProto entry) {
+        String type = getBaseJavaType(getMapValue(entry));
+        return isPrimitive(type) ? type : "Object";
+    }
+
+    static String getMapContainerClassName(String keyType, String valueType) {
+        return capitalize(keyType) + capitalize(valueType) + "Map";
+    }
+
+    static String getMapContainerClassName(DescriptorProto entry) {
+        return getMapContainerClassName(getMapKeyType(entry), getMapValueType(entry));
+    }
+
+    /**
+     * IntLongMap, or StringObjectMap&lt;Item&gt; for reference values
+     */
+    static String getMapType(DescriptorProto entry) {
+        return getMapContainerClassName(entry) + getMapTypeArguments(entry);
+    }
+
+    static String getMapBuilderType(DescriptorProto entry) {
+        return getMapContainerClassName(entry) + ".Builder" + getMapTypeArguments(entry);
+    }
+
+    private static String getMapTypeArguments(DescriptorProto entry) {
+        if (getMapValueType(entry).equals("Object")) {
+            return "<" + getBaseJavaType(getMapValue(entry)) + ">";
+        }
+        return "";
+    }
+
+    /**
+     * Accessor type of a field of message, map fields included
+     */
+    static String getJavaType(DescriptorProto message, FieldDescriptorProto field, GeneratorOptions options) {
+        DescriptorProto entry = getMapEntry(message, field);
+        return entry != null ? getMapType(entry) : getJavaType(field, options);
+    }
+
+    static String getStorageType(DescriptorProto message, FieldDescriptorProto field, GeneratorOptions options) {
+        DescriptorProto entry = getMapEntry(message, field);
+        return entry != null ? getMapType(entry) : getStorageType(field, options);
+    }
+
+    static String getDefaultValue(DescriptorProto message, FieldDescriptorProto field, GeneratorOptions options) {
+        DescriptorProto entry = getMapEntry(message, field);
+        return entry != null ? getMapContainerClassName(entry) + ".of()" : getDefaultValue(field, options);
+    }
+
+    /**
+     * Type of the backing field, which differs from the accessor type for lazy fields
+     */
+    static String getStorageType(FieldDescriptorProto field, GeneratorOptions options) {
+        if (isLazyStringField(field, options)) {
+            return "ByteString";
+        }
+        if (isLazyMessageField(field, options)) {
+            return LazyMessageGenerator.CLASS_NAME + "<" + getBaseJavaType(field) + ">";
+        }
+        return getJavaType(field, options);
+    }
+
+    /**
+     * Fields backed by a generated array container (with a nested growable Builder)
+     */
+    static boolean isArrayContainerField(FieldDescriptorProto field, GeneratorOptions options) {
+        return isPrimitiveRepeatedField(field) || isMessageArrayField(field, options);
+    }
+
+    static boolean isPrimitive(String javaType) {
+        switch (javaType) {
+            case "int":
+            case "long":
+            case "float":
+            case "double":
+            case "boolean":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Integer for int and so on, reference types unchanged
+     */
+    static String getBoxedType(String javaType) {
+        switch (javaType) {
+            case "int":
+                return "Integer";
+            case "boolean":
+                return "Boolean";
+            case "long":
+            case "float":
+            case "double":
+                return capitalize(javaType);
+            default:
+                return javaType;
+        }
+    }
+
+    /**
+     * int -> IntArray, double -> DoubleArray, ...
+     */
+    static String getPrimitiveArrayType(String primitiveType) {
+        return capitalize(primitiveType) + "Array";
+    }
+
     static boolean isRepeatedField(FieldDescriptorProto field) {
         return field.getLabel() == FieldDescriptorProto.Label.LABEL_REPEATED;
     }
 
+    /**
+     * Repeated scalar numeric, bool and enum fields may use the packed encoding
+     */
+    static boolean isPackable(FieldDescriptorProto field) {
+        return isRepeatedField(field) && getWireType(field) != 2; // not LENGTH_DELIMITED
+    }
+
+    /**
+     * Packable fields are written packed (the proto3 default) unless they opt out with [packed = false]
+     */
+    static boolean isPacked(FieldDescriptorProto field) {
+        if (!isPackable(field)) {
+            return false;
+        }
+        return !field.getOptions().hasPacked() || field.getOptions().getPacked();
+    }
+
     static String getBaseJavaType(FieldDescriptorProto field) {
         switch (field.getType()) {
             case TYPE_INT32:
@@ -50,31 +510,80 @@ class ProtoUtils {
                 String typeName = field.getTypeName();
                 return typeName.substring(typeName.lastIndexOf('.') + 1);
             case TYPE_ENUM:
-                String enumName = field.getTypeName();
-                return enumName.substring(enumName.lastIndexOf('.') + 1);
+                // Stored as the raw number, see getEnumJavaType for the typed accessors
+                return "int";
             default:
                 return "Object";
         }
     }
 
-    private static String boxPrimitive(String type) {
-        switch (type) {
-            case "int":
-                return "Integer";
-            case "long":
-                return "Long";
-            case "float":
-                return "Float";
-            case "double":
-                return "Double";
-            case "boolean":
-                return "Boolean";
-            default:
-                return type; // Non-primitives like String, ByteString, etc.
+    static boolean isEnumField(FieldDescriptorProto field) {
+        return field.getType() == FieldDescriptorProto.Type.TYPE_ENUM;
+    }
+
+    /**
+     * Generated enum behind an enum field, which itself stores the number as an int
+     * so values unknown to this schema version round-trip unchanged
+     */
+    static String getEnumJavaType(FieldDescriptorProto field) {
+        String typeName = field.getTypeName();
+        return typeName.substring(typeName.lastIndexOf('.') + 1);
+    }
+
+    /**
+     * Capitalized name of the raw accessors: status -> Status, or StatusValue for
+     * enum fields, whose getStatus() / setStatus() take the typed enum
+     */
+    static String getAccessorName(FieldDescriptorProto field) {
+        return capitalize(field.getName()) + (isEnumField(field) ? "Value" : "");
+    }
+
+    /**
+     * LineItem -> LineItemArray
+     */
+    static String getMessageArrayType(String messageType) {
+        return messageType + "Array";
+    }
+
+    /**
+     * Product -> ProductFields
+     */
+    static String getFieldMaskType(String messageType) {
+        return messageType + "Fields";
+    }
+
+    /**
+     * Projection masks are a single long, so only messages with up to 64 fields get one
+     */
+    static boolean hasFieldMask(DescriptorProto message) {
+        return message.getFieldCount() > 0 && message.getFieldCount() <= 64;
+    }
+
+    /**
+     * unitPrice / unit_price -> UNIT_PRICE
+     */
+    static String getFieldMaskConstant(FieldDescriptorProto field) {
+        return toConstantName(field.getName());
+    }
+
+    static String toConstantName(String name) {
+        return name.replaceAll("([a-z0-9])([A-Z])", "$1_$2").toUpperCase();
+    }
+
+    static String getDefaultValue(FieldDescriptorProto field, GeneratorOptions options) {
+        if (isLazyStringField(field, options)) {
+            return "ByteString.EMPTY";
+        }
+        if (isMessageArrayField(field, options)) {
+            return getMessageArrayType(getBaseJavaType(field)) + ".of()";
         }
+        return getDefaultValue(field);
     }
 
     static String getDefaultValue(FieldDescriptorProto field) {
+        if (isPrimitiveRepeatedField(field)) {
+            return getPrimitiveArrayType(getBaseJavaType(field)) + ".of()";
+        }
         if (isRepeatedField(field)) {
             return "List.of()";
         }
@@ -84,6 +593,7 @@ class ProtoUtils {
             case TYPE_SFIXED32:
             case TYPE_UINT32:
             case TYPE_FIXED32:
+            case TYPE_ENUM:
                 return "0";
             case TYPE_INT64:
             case TYPE_SINT64:
@@ -102,13 +612,23 @@ class ProtoUtils {
             case TYPE_BYTES:
                 return "ByteString.EMPTY";
             case TYPE_MESSAGE:
-            case TYPE_ENUM:
                 return "null";
             default:
                 return "null";
         }
     }
 
+    static String getReadExpression(FieldDescriptorProto field, GeneratorOptions options) {
+        if (isLazyStringField(field, options)) {
+            // Same wire format as bytes, UTF-8 decoding is deferred to the getter
+            return "input.readBytes()";
+        }
+        if (isLazyMessageField(field, options)) {
+            return "LazyMessage.ofBytes(input.readBytes(), $depth, " + getBaseJavaType(field) + "::parseNested)";
+        }
+        return getReadExpression(field);
+    }
+
     static String getReadExpression(FieldDescriptorProto field) {
         switch (field.getType()) {
             case TYPE_INT32:
@@ -141,10 +661,12 @@ class ProtoUtils {
                 return "input.readString()";
             case TYPE_BYTES:
                 return "input.readBytes()";
+            case TYPE_ENUM:
+                return "input.readEnum()";
             case TYPE_MESSAGE:
                 String typeName = field.getTypeName();
                 String className = typeName.substring(typeName.lastIndexOf('.') + 1);
-                return className + ".parseFrom(input.readBytes().toByteArray())";
+                return className + ".readNested(input, $depth)";
             default:
                 return "null";
         }
@@ -182,6 +704,8 @@ class ProtoUtils {
                 return "String";
             case TYPE_BYTES:
                 return "Bytes";
+            case TYPE_ENUM:
+                return "Enum";
             case TYPE_MESSAGE:
                 return "Message";
             default:
@@ -217,14 +741,69 @@ class ProtoUtils {
         }
     }
 
+    /**
+     * Encoded size of one element for fixed-width types, 0 for varint and length-delimited types
+     */
+    static int getFixedSize(FieldDescriptorProto field) {
+        switch (field.getType()) {
+            case TYPE_FIXED32:
+            case TYPE_SFIXED32:
+            case TYPE_FLOAT:
+                return 4;
+            case TYPE_FIXED64:
+            case TYPE_SFIXED64:
+            case TYPE_DOUBLE:
+                return 8;
+            case TYPE_BOOL:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Base 128 varint encoding of an unsigned int, e.g. a tag
+     */
+    static byte[] getVarintBytes(int value) {
+        byte[] bytes = new byte[5];
+        int length = 0;
+        while ((value & ~0x7F) != 0) {
+            bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[length++] = (byte) value;
+        return Arrays.copyOf(bytes, length);
+    }
+
+    /**
+     * Messages made only of singular fixed32/fixed64/float/double/bool fields, whose
+     * canonical encoding puts every field at a fixed byte offset. proto3 optional
+     * fields are excluded, the layout has no way to say which of them were set.
+     */
+    static boolean isFixedLayout(DescriptorProto message) {
+        if (message.getFieldCount() == 0) {
+            return false;
+        }
+        for (FieldDescriptorProto field : message.getFieldList()) {
+            if (isRepeatedField(field) || isOneofMember(field) || hasPresenceBit(field) || getFixedSize(field) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     static String getDefaultCheck(FieldDescriptorProto field) {
-        String name = field.getName();
+        return getDefaultCheck(field, field.getName());
+    }
+
+    static String getDefaultCheck(FieldDescriptorProto field, String name) {
         switch (field.getType()) {
             case TYPE_INT32:
             case TYPE_UINT32:
             case TYPE_SINT32:
             case TYPE_FIXED32:
             case TYPE_SFIXED32:
+            case TYPE_ENUM:
                 return name + " != 0";
             case TYPE_INT64:
             case TYPE_UINT64:
@@ -243,7 +822,6 @@ class ProtoUtils {
             case TYPE_BYTES:
                 return "!" + name + ".isEmpty()";
             case TYPE_MESSAGE:
-            case TYPE_ENUM:
                 return name + " != null";
             default:
                 return "true";
@@ -275,6 +853,110 @@ class ProtoUtils {
         return file.getPackage().isEmpty() ? "generated" : file.getPackage();
     }
 
+    /**
+     * Java class of every nested message and enum: .pkg.Order.Item -> Order_Item.
+     * Keyed by fully-qualified proto name, valued by the qualified name the type
+     * takes once hoisted, .pkg.Order_Item. Map entries stay nested and unnamed.
+     * Throws IllegalArgumentException if a hoisted name is already taken in its
+     * Java package, e.g. by a top-level Order_Item next to Order.Item.
+     */
+    static Map<String, String> getNestedTypeNames(List<FileDescriptorProto> files) {
+        Map<String, String> names = new HashMap<>();
+        // Java class -> proto type generated into it, top-level types claim theirs first
+        Map<String, String> classes = new HashMap<>();
+        for (FileDescriptorProto file : files) {
+            String prefix = file.getPackage().isEmpty() ? "" : "." + file.getPackage();
+            String javaPackage = getJavaPackage(file);
+            for (DescriptorProto message : file.getMessageTypeList()) {
+                classes.put(javaPackage + "." + message.getName(), prefix + "." + message.getName());
+            }
+            for (EnumDescriptorProto enumType : file.getEnumTypeList()) {
+                classes.put(javaPackage + "." + enumType.getName(), prefix + "." + enumType.getName());
+            }
+        }
+        for (FileDescriptorProto file : files) {
+            String prefix = file.getPackage().isEmpty() ? "" : "." + file.getPackage();
+            Map<String, String> fileNames = new LinkedHashMap<>();
+            for (DescriptorProto message : file.getMessageTypeList()) {
+                collectNestedTypeNames(message, prefix + "." + message.getName(), prefix + "." + message.getName(), fileNames);
+            }
+            for (Map.Entry<String, String> entry : fileNames.entrySet()) {
+                String hoistedName = entry.getValue();
+                String className = getJavaPackage(file) + hoistedName.substring(hoistedName.lastIndexOf('.'));
+                String existing = classes.putIfAbsent(className, entry.getKey());
+                if (existing != null) {
+                    throw new IllegalArgumentException("Nested type " + entry.getKey().substring(1)
+                            + " would be generated as " + className + ", which clashes with "
+                            + existing.substring(1));
+                }
+            }
+            names.putAll(fileNames);
+        }
+        return names;
+    }
+
+    private static void collectNestedTypeNames(DescriptorProto message, String protoName, String hoistedName,
+                                               Map<String, String> names) {
+        for (DescriptorProto nested : message.getNestedTypeList()) {
+            if (nested.getOptions().getMapEntry()) {
+                continue;
+            }
+            String nestedProtoName = protoName + "." + nested.getName();
+            String nestedHoistedName = hoistedName + "_" + nested.getName();
+            names.put(nestedProtoName, nestedHoistedName);
+            collectNestedTypeNames(nested, nestedProtoName, nestedHoistedName, names);
+        }
+        for (EnumDescriptorProto enumType : message.getEnumTypeList()) {
+            names.put(protoName + "." + enumType.getName(), hoistedName + "_" + enumType.getName());
+        }
+    }
+
+    /**
+     * Copy of file with nested messages and enums hoisted to top-level types named
+     * Outer_Inner, and field type names rewritten to match, so the generators only
+     * ever see top-level types. Each nested message is listed right after its parent.
+     */
+    static FileDescriptorProto flattenNestedTypes(FileDescriptorProto file, Map<String, String> nestedTypeNames) {
+        FileDescriptorProto.Builder flat = file.toBuilder().clearMessageType();
+        for (DescriptorProto message : file.getMessageTypeList()) {
+            hoistNestedTypes(message, message.getName(), flat, nestedTypeNames);
+        }
+        return flat.build();
+    }
+
+    private static void hoistNestedTypes(DescriptorProto message, String className,
+                                         FileDescriptorProto.Builder flat, Map<String, String> nestedTypeNames) {
+        DescriptorProto.Builder hoisted = renameFieldTypes(message, nestedTypeNames).toBuilder()
+                .setName(className)
+                .clearNestedType()
+                .clearEnumType();
+        for (DescriptorProto nested : message.getNestedTypeList()) {
+            if (nested.getOptions().getMapEntry()) {
+                hoisted.addNestedType(renameFieldTypes(nested, nestedTypeNames));
+            }
+        }
+        flat.addMessageType(hoisted);
+        for (EnumDescriptorProto enumType : message.getEnumTypeList()) {
+            flat.addEnumType(enumType.toBuilder().setName(className + "_" + enumType.getName()));
+        }
+        for (DescriptorProto nested : message.getNestedTypeList()) {
+            if (!nested.getOptions().getMapEntry()) {
+                hoistNestedTypes(nested, className + "_" + nested.getName(), flat, nestedTypeNames);
+            }
+        }
+    }
+
+    private static DescriptorProto renameFieldTypes(DescriptorProto message, Map<String, String> nestedTypeNames) {
+        DescriptorProto.Builder renamed = message.toBuilder();
+        for (FieldDescriptorProto.Builder field : renamed.getFieldBuilderList()) {
+            String hoistedName = nestedTypeNames.get(field.getTypeName());
+            if (hoistedName != null) {
+                field.setTypeName(hoistedName);
+            }
+        }
+        return renamed.build();
+    }
+
      static String capitalize(String str) {
         if (str == null || str.isEmpty()) return str;
         return str.substring(0, 1).toUpperCase() + str.substring(1);
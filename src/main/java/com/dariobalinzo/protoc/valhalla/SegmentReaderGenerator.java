@@ -0,0 +1,296 @@
+package com.dariobalinzo.protoc.valhalla;
+
+/**
+ * Generates the SegmentReader behind parseFrom(MemorySegment, long, long),
+ * one per Java package
+ */
+public class SegmentReaderGenerator {
+
+    static final String CLASS_NAME = "SegmentReader";
+
+    private final String pkg;
+
+    public SegmentReaderGenerator(String pkg) {
+        this.pkg = pkg;
+    }
+
+    public String getClassName() {
+        return CLASS_NAME;
+    }
+
+    public String generate() {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append("package ").append(pkg).append(";\n\n");
+        sb.append("import com.google.protobuf.ByteString;\n");
+        sb.append("import com.google.protobuf.InvalidProtocolBufferException;\n");
+        sb.append("import com.google.protobuf.UnsafeByteOperations;\n");
+        sb.append("import java.lang.foreign.MemorySegment;\n");
+        sb.append("import java.lang.foreign.ValueLayout;\n");
+        sb.append("import java.nio.ByteOrder;\n");
+        sb.append("import java.nio.charset.StandardCharsets;\n\n");
+
+        sb.append("""
+            /**
+             * Minimal protobuf wire decoder over a MemorySegment
+             * Same methods as WireReader, so the parse loops are the same code. Every value
+             * is read in place with ValueLayout accessors, which works the same for heap,
+             * native, mapped and read-only segments. Only string and bytes values are
+             * copied out, into the String or ByteString they become.
+             */
+            public final class SegmentReader {
+
+                private static final ValueLayout.OfInt INT_LE =
+                        ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+                private static final ValueLayout.OfLong LONG_LE =
+                        ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+                private static final int RECURSION_LIMIT = 100;
+
+                private final MemorySegment segment;
+                // Offsets into segment, a single message is capped at 2GB like protobuf
+                private int pos;
+                // Absolute end of the current (possibly nested) message
+                private int limit;
+                private int groupDepth;
+
+                /**
+                 * Decodes the whole of segment, typically a slice of a larger mapping
+                 */
+                public SegmentReader(MemorySegment segment) {
+                    if (segment.byteSize() > Integer.MAX_VALUE) {
+                        throw new IllegalArgumentException("Message segment exceeds 2GB: " + segment.byteSize());
+                    }
+                    this.segment = segment;
+                    this.limit = (int) segment.byteSize();
+                }
+
+                public boolean isAtEnd() {
+                    return pos == limit;
+                }
+
+                public int getBytesUntilLimit() {
+                    return limit - pos;
+                }
+
+                /**
+                 * Restricts reads to the next length bytes, returns the limit to restore
+                 */
+                public int pushLimit(int length) throws InvalidProtocolBufferException {
+                    if (length < 0) {
+                        throw new InvalidProtocolBufferException("Encountered an embedded string or message which claimed to have negative size.");
+                    }
+                    if (length > limit - pos) {
+                        throw truncated();
+                    }
+                    int oldLimit = limit;
+                    limit = pos + length;
+                    return oldLimit;
+                }
+
+                public void popLimit(int oldLimit) {
+                    limit = oldLimit;
+                }
+
+                /**
+                 * Returns 0 at the end of the current message, like CodedInputStream
+                 */
+                public int readTag() throws InvalidProtocolBufferException {
+                    if (pos == limit) {
+                        return 0;
+                    }
+                    int tag = readRawVarint32();
+                    if ((tag >>> 3) == 0) {
+                        throw new InvalidProtocolBufferException("Protocol message contained an invalid tag (zero).");
+                    }
+                    return tag;
+                }
+
+                public int readInt32() throws InvalidProtocolBufferException {
+                    return readRawVarint32();
+                }
+
+                public long readInt64() throws InvalidProtocolBufferException {
+                    return readRawVarint64();
+                }
+
+                public int readUInt32() throws InvalidProtocolBufferException {
+                    return readRawVarint32();
+                }
+
+                public long readUInt64() throws InvalidProtocolBufferException {
+                    return readRawVarint64();
+                }
+
+                public int readEnum() throws InvalidProtocolBufferException {
+                    return readRawVarint32();
+                }
+
+                public int readSInt32() throws InvalidProtocolBufferException {
+                    int n = readRawVarint32();
+                    return (n >>> 1) ^ -(n & 1);
+                }
+
+                public long readSInt64() throws InvalidProtocolBufferException {
+                    long n = readRawVarint64();
+                    return (n >>> 1) ^ -(n & 1);
+                }
+
+                public int readFixed32() throws InvalidProtocolBufferException {
+                    if (limit - pos < 4) {
+                        throw truncated();
+                    }
+                    int value = segment.get(INT_LE, pos);
+                    pos += 4;
+                    return value;
+                }
+
+                public long readFixed64() throws InvalidProtocolBufferException {
+                    if (limit - pos < 8) {
+                        throw truncated();
+                    }
+                    long value = segment.get(LONG_LE, pos);
+                    pos += 8;
+                    return value;
+                }
+
+                public int readSFixed32() throws InvalidProtocolBufferException {
+                    return readFixed32();
+                }
+
+                public long readSFixed64() throws InvalidProtocolBufferException {
+                    return readFixed64();
+                }
+
+                public float readFloat() throws InvalidProtocolBufferException {
+                    return Float.intBitsToFloat(readFixed32());
+                }
+
+                public double readDouble() throws InvalidProtocolBufferException {
+                    return Double.longBitsToDouble(readFixed64());
+                }
+
+                public boolean readBool() throws InvalidProtocolBufferException {
+                    return readRawVarint64() != 0;
+                }
+
+                public String readString() throws InvalidProtocolBufferException {
+                    int length = readLength();
+                    byte[] bytes = new byte[length];
+                    MemorySegment.copy(segment, ValueLayout.JAVA_BYTE, pos, bytes, 0, length);
+                    pos += length;
+                    return new String(bytes, StandardCharsets.UTF_8);
+                }
+
+                /**
+                 * Copied once into a fresh array, which the ByteString then owns
+                 */
+                public ByteString readBytes() throws InvalidProtocolBufferException {
+                    int length = readLength();
+                    if (length == 0) {
+                        return ByteString.EMPTY;
+                    }
+                    byte[] bytes = new byte[length];
+                    MemorySegment.copy(segment, ValueLayout.JAVA_BYTE, pos, bytes, 0, length);
+                    pos += length;
+                    return UnsafeByteOperations.unsafeWrap(bytes);
+                }
+
+                /**
+                 * Skips one field, returns false for an end-group tag like CodedInputStream
+                 */
+                public boolean skipField(int tag) throws InvalidProtocolBufferException {
+                    switch (tag & 7) {
+                        case 0:
+                            readRawVarint64();
+                            return true;
+                        case 1:
+                            skipRawBytes(8);
+                            return true;
+                        case 2:
+                            skipRawBytes(readRawVarint32());
+                            return true;
+                        case 3:
+                            skipGroup((tag & ~7) | 4);
+                            return true;
+                        case 4:
+                            return false;
+                        case 5:
+                            skipRawBytes(4);
+                            return true;
+                        default:
+                            throw new InvalidProtocolBufferException("Protocol message tag had invalid wire type.");
+                    }
+                }
+
+                private void skipGroup(int endTag) throws InvalidProtocolBufferException {
+                    if (++groupDepth >= RECURSION_LIMIT) {
+                        throw new InvalidProtocolBufferException("Protocol message had too many levels of nesting");
+                    }
+                    while (true) {
+                        int tag = readTag();
+                        if (tag == 0) {
+                            throw truncated();
+                        }
+                        if (tag == endTag) {
+                            break;
+                        }
+                        if (!skipField(tag)) {
+                            throw new InvalidProtocolBufferException("Protocol message end-group tag did not match expected tag.");
+                        }
+                    }
+                    groupDepth--;
+                }
+
+                public void skipRawBytes(int length) throws InvalidProtocolBufferException {
+                    if (length < 0 || length > limit - pos) {
+                        throw truncated();
+                    }
+                    pos += length;
+                }
+
+                private int readLength() throws InvalidProtocolBufferException {
+                    int length = readRawVarint32();
+                    if (length < 0 || length > limit - pos) {
+                        throw truncated();
+                    }
+                    return length;
+                }
+
+                /**
+                 * Negative int32 values are sign-extended to ten bytes, so the 64-bit
+                 * decode is truncated like CodedInputStream does
+                 */
+                public int readRawVarint32() throws InvalidProtocolBufferException {
+                    return (int) readRawVarint64();
+                }
+
+                public long readRawVarint64() throws InvalidProtocolBufferException {
+                    int p = pos;
+                    long result = 0;
+                    for (int shift = 0; shift < 64; shift += 7) {
+                        if (p == limit) {
+                            throw truncated();
+                        }
+                        byte b = segment.get(ValueLayout.JAVA_BYTE, p++);
+                        result |= (long) (b & 0x7F) << shift;
+                        if (b >= 0) {
+                            pos = p;
+                            return result;
+                        }
+                    }
+                    throw malformedVarint();
+                }
+
+                private static InvalidProtocolBufferException truncated() {
+                    return new InvalidProtocolBufferException("While parsing a protocol message, the input ended unexpectedly in the middle of a field.");
+                }
+
+                private static InvalidProtocolBufferException malformedVarint() {
+                    return new InvalidProtocolBufferException("CodedInputStream encountered a malformed varint.");
+                }
+            }
+            """);
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,226 @@
+package com.dariobalinzo.protoc.valhalla;
+
+/**
+ * Generates the SegmentWriter behind writeTo(MemorySegment, long),
+ * one per Java package
+ */
+public class SegmentWriterGenerator {
+
+    static final String CLASS_NAME = "SegmentWriter";
+
+    private final String pkg;
+
+    public SegmentWriterGenerator(String pkg) {
+        this.pkg = pkg;
+    }
+
+    public String getClassName() {
+        return CLASS_NAME;
+    }
+
+    public String generate() {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append("package ").append(pkg).append(";\n\n");
+        sb.append("import com.google.protobuf.ByteString;\n");
+        sb.append("import java.lang.foreign.MemorySegment;\n");
+        sb.append("import java.lang.foreign.ValueLayout;\n");
+        sb.append("import java.nio.ByteOrder;\n");
+        sb.append("import java.nio.charset.StandardCharsets;\n\n");
+
+        sb.append("""
+            /**
+             * Minimal protobuf wire encoder into a MemorySegment
+             * Same methods as WireWriter, so the write loops are the same code. Values are
+             * stored in place with ValueLayout accessors, for heap, native and mapped
+             * segments alike. The caller slices the segment to getSerializedSize(), so
+             * the segment's own bounds checks catch any overrun.
+             */
+            public final class SegmentWriter {
+
+                private static final ValueLayout.OfShort SHORT_LE =
+                        ValueLayout.JAVA_SHORT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+                private static final ValueLayout.OfInt INT_LE =
+                        ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+                private static final ValueLayout.OfLong LONG_LE =
+                        ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+
+                private final MemorySegment segment;
+                private long pos;
+
+                public SegmentWriter(MemorySegment segment) {
+                    this.segment = segment;
+                }
+
+                public long getPosition() {
+                    return pos;
+                }
+
+                public void writeRawByte(byte value) {
+                    segment.set(ValueLayout.JAVA_BYTE, pos++, value);
+                }
+
+                /**
+                 * Two-byte tags (field numbers 16 to 2047) in one store
+                 */
+                public void writeRawShort(short value) {
+                    segment.set(SHORT_LE, pos, value);
+                    pos += 2;
+                }
+
+                public void writeInt32NoTag(int value) {
+                    if (value >= 0) {
+                        writeUInt32NoTag(value);
+                    } else {
+                        // Negative int32 values are sign-extended to ten bytes
+                        writeUInt64NoTag(value);
+                    }
+                }
+
+                public void writeUInt32NoTag(int value) {
+                    long p = pos;
+                    while ((value & ~0x7F) != 0) {
+                        segment.set(ValueLayout.JAVA_BYTE, p++, (byte) ((value & 0x7F) | 0x80));
+                        value >>>= 7;
+                    }
+                    segment.set(ValueLayout.JAVA_BYTE, p++, (byte) value);
+                    pos = p;
+                }
+
+                public void writeEnumNoTag(int value) {
+                    writeInt32NoTag(value);
+                }
+
+                public void writeSInt32NoTag(int value) {
+                    writeUInt32NoTag((value << 1) ^ (value >> 31));
+                }
+
+                public void writeInt64NoTag(long value) {
+                    writeUInt64NoTag(value);
+                }
+
+                public void writeUInt64NoTag(long value) {
+                    long p = pos;
+                    while ((value & ~0x7FL) != 0) {
+                        segment.set(ValueLayout.JAVA_BYTE, p++, (byte) (((int) value & 0x7F) | 0x80));
+                        value >>>= 7;
+                    }
+                    segment.set(ValueLayout.JAVA_BYTE, p++, (byte) value);
+                    pos = p;
+                }
+
+                public void writeSInt64NoTag(long value) {
+                    writeUInt64NoTag((value << 1) ^ (value >> 63));
+                }
+
+                public void writeFixed32NoTag(int value) {
+                    segment.set(INT_LE, pos, value);
+                    pos += 4;
+                }
+
+                public void writeSFixed32NoTag(int value) {
+                    writeFixed32NoTag(value);
+                }
+
+                public void writeFixed64NoTag(long value) {
+                    segment.set(LONG_LE, pos, value);
+                    pos += 8;
+                }
+
+                public void writeSFixed64NoTag(long value) {
+                    writeFixed64NoTag(value);
+                }
+
+                public void writeFloatNoTag(float value) {
+                    writeFixed32NoTag(Float.floatToRawIntBits(value));
+                }
+
+                public void writeDoubleNoTag(double value) {
+                    writeFixed64NoTag(Double.doubleToRawLongBits(value));
+                }
+
+                public void writeBoolNoTag(boolean value) {
+                    segment.set(ValueLayout.JAVA_BYTE, pos++, (byte) (value ? 1 : 0));
+                }
+
+                /**
+                 * Copied straight from the ByteString's storage, no intermediate array
+                 */
+                public void writeBytesNoTag(ByteString value) {
+                    int size = value.size();
+                    writeUInt32NoTag(size);
+                    MemorySegment.copy(MemorySegment.ofBuffer(value.asReadOnlyByteBuffer()), 0, segment, pos, size);
+                    pos += size;
+                }
+
+                /**
+                 * Encodes UTF-8 straight into the segment after a first pass for the length.
+                 * Unpaired surrogates fall back to String.getBytes, which writes '?'
+                 * like CodedOutputStream does.
+                 */
+                public void writeStringNoTag(String value) {
+                    int utf8Length = encodedLength(value);
+                    if (utf8Length < 0) {
+                        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                        writeUInt32NoTag(bytes.length);
+                        MemorySegment.copy(bytes, 0, segment, ValueLayout.JAVA_BYTE, pos, bytes.length);
+                        pos += bytes.length;
+                        return;
+                    }
+                    writeUInt32NoTag(utf8Length);
+                    long p = pos;
+                    int length = value.length();
+                    for (int i = 0; i < length; i++) {
+                        char c = value.charAt(i);
+                        if (c < 0x80) {
+                            segment.set(ValueLayout.JAVA_BYTE, p++, (byte) c);
+                        } else if (c < 0x800) {
+                            segment.set(ValueLayout.JAVA_BYTE, p++, (byte) (0xC0 | (c >>> 6)));
+                            segment.set(ValueLayout.JAVA_BYTE, p++, (byte) (0x80 | (c & 0x3F)));
+                        } else if (!Character.isSurrogate(c)) {
+                            segment.set(ValueLayout.JAVA_BYTE, p++, (byte) (0xE0 | (c >>> 12)));
+                            segment.set(ValueLayout.JAVA_BYTE, p++, (byte) (0x80 | ((c >>> 6) & 0x3F)));
+                            segment.set(ValueLayout.JAVA_BYTE, p++, (byte) (0x80 | (c & 0x3F)));
+                        } else {
+                            int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                            segment.set(ValueLayout.JAVA_BYTE, p++, (byte) (0xF0 | (codePoint >>> 18)));
+                            segment.set(ValueLayout.JAVA_BYTE, p++, (byte) (0x80 | ((codePoint >>> 12) & 0x3F)));
+                            segment.set(ValueLayout.JAVA_BYTE, p++, (byte) (0x80 | ((codePoint >>> 6) & 0x3F)));
+                            segment.set(ValueLayout.JAVA_BYTE, p++, (byte) (0x80 | (codePoint & 0x3F)));
+                        }
+                    }
+                    pos = p;
+                }
+
+                /**
+                 * UTF-8 length of value, -1 if it contains an unpaired surrogate
+                 */
+                private static int encodedLength(String value) {
+                    int length = value.length();
+                    int utf8Length = length;
+                    for (int i = 0; i < length; i++) {
+                        char c = value.charAt(i);
+                        if (c < 0x80) {
+                            continue;
+                        }
+                        if (c < 0x800) {
+                            utf8Length += 1;
+                        } else if (!Character.isSurrogate(c)) {
+                            utf8Length += 2;
+                        } else if (Character.isHighSurrogate(c) && i + 1 < length
+                                && Character.isLowSurrogate(value.charAt(i + 1))) {
+                            // Two chars, four bytes
+                            utf8Length += 2;
+                            i++;
+                        } else {
+                            return -1;
+                        }
+                    }
+                    return utf8Length;
+                }
+            }
+            """);
+
+        return sb.toString();
+    }
+}
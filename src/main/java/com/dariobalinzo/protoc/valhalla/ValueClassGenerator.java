@@ -1,6 +1,9 @@
 package com.dariobalinzo.protoc.valhalla;
 
 import com.google.protobuf.DescriptorProtos.*;
+import java.util.*;
+import java.util.regex.Pattern;
+
 import static com.dariobalinzo.protoc.valhalla.ProtoUtils.*;
 
 /**
@@ -8,27 +11,43 @@ import static com.dariobalinzo.protoc.valhalla.ProtoUtils.*;
  */
 public class ValueClassGenerator {
 
+    /**
+     * Imported only if the generated body mentions them, so optional features
+     * leave no unused imports behind
+     */
+    private static final List<String> SINGLE_TYPE_IMPORTS = List.of(
+            "java.io.IOException",
+            "java.io.InputStream",
+            "java.io.OutputStream",
+            "java.io.UncheckedIOException",
+            "java.lang.foreign.MemorySegment",
+            "java.lang.invoke.MethodHandles",
+            "java.lang.invoke.VarHandle",
+            "java.nio.ByteBuffer",
+            "java.nio.ByteOrder",
+            "java.nio.channels.ReadableByteChannel",
+            "java.util.concurrent.ForkJoinPool",
+            "java.util.concurrent.RecursiveAction");
+
     private final StringBuilder sb = new StringBuilder();
     private final String pkg;
     private final DescriptorProto message;
+    private final GeneratorOptions options;
 
     public ValueClassGenerator(String pkg, DescriptorProto message) {
+        this(pkg, message, GeneratorOptions.defaults());
+    }
+
+    public ValueClassGenerator(String pkg, DescriptorProto message, GeneratorOptions options) {
         this.pkg = pkg;
         this.message = message;
+        this.options = options;
     }
 
 
     public String generate() {
         String className = message.getName();
 
-        // Package and imports
-        sb.append("package ").append(pkg).append(";\n\n");
-        sb.append("import com.google.protobuf.*;\n");
-        sb.append("import java.io.IOException;\n");
-        sb.append("import java.io.OutputStream;\n");
-        sb.append("import java.io.ByteArrayOutputStream;\n");
-        sb.append("import java.util.*;\n\n");
-
         sb.append("""
             /**
              * Value class for %s
@@ -44,10 +63,21 @@ public class ValueClassGenerator {
         // Value class declaration
         sb.append("public value class ").append(className).append(" {\n\n");
 
-        // Fields (all final)
-        for (FieldDescriptorProto field : message.getFieldList()) {
-            sb.append("    private final ").append(getJavaType(field));
-            sb.append(" ").append(field.getName()).append(";\n");
+        // Same nesting limit as CodedInputStream's default
+        sb.append("    private static final int RECURSION_LIMIT = 100;\n");
+        // Inputs per fork-join task in parseAllParallel
+        sb.append("    private static final int PARALLEL_THRESHOLD = 1024;\n\n");
+
+        if (isFixedLayout(message)) {
+            generateFixedLayoutConstants();
+        }
+
+        // Fields (all final), oneof members share their oneof's slots
+        for (String declaration : getStorageDeclarations()) {
+            sb.append("    private final ").append(declaration).append(";\n");
+        }
+        if (options.isMemoizeSize()) {
+            sb.append("    private final int serializedSize;\n");
         }
         sb.append("\n");
 
@@ -57,6 +87,9 @@ public class ValueClassGenerator {
         // Getters
         generateGetters();
 
+        // Oneof case enums and views
+        generateOneofAccessors();
+
         // With methods (immutable updates)
         generateWithMethods(className);
 
@@ -73,52 +106,423 @@ public class ValueClassGenerator {
         generateSerialization();
 
         sb.append("}\n");
+
+        // Package and imports, known once the body is written
+        String body = sb.toString();
+        sb.setLength(0);
+        sb.append("package ").append(pkg).append(";\n\n");
+        sb.append("import com.google.protobuf.*;\n");
+        for (String type : SINGLE_TYPE_IMPORTS) {
+            String simpleName = type.substring(type.lastIndexOf('.') + 1);
+            if (Pattern.compile("\\b" + simpleName + "\\b").matcher(body).find()) {
+                sb.append("import ").append(type).append(";\n");
+            }
+        }
+        sb.append("import java.util.*;\n\n");
+        sb.append(body);
         return sb.toString();
     }
 
     private void generateConstructor(String className) {
-        sb.append("    public ").append(className).append("(");
+        boolean fieldConstructor = !getPresenceSlots(message).isEmpty()
+                || message.getFieldList().stream().anyMatch(ProtoUtils::isOneofMember);
+        if (fieldConstructor) {
+            generateFieldConstructor(className);
+            sb.append("""
+                    /**
+                     * Storage constructor for the parser, builder and with methods, which keep
+                     * the presence bits and oneof slots consistent with the field values
+                     */
+                """);
+        }
+        sb.append(fieldConstructor ? "    " : "    public ").append(className).append("(");
         appendParameters();
         sb.append(") {\n");
+        if (options.isMemoizeSize()) {
+            generateMemoizingConstructorBody();
+            sb.append("    }\n\n");
+            return;
+        }
+        List<String> assignments = mapStorage(message,
+                field -> field.getName() + " = "
+                        + (isRepeatedField(field) ? getRepeatedNormalization(field) : field.getName()),
+                slot -> slot.name + " = " + slot.name);
+        for (String assignment : assignments) {
+            sb.append("        this.").append(assignment).append(";\n");
+        }
+        sb.append("    }\n\n");
+    }
+
+    /**
+     * One argument per field, presence is derived from the arguments: an absent
+     * message, optional field or oneof member is passed as null, and optional
+     * scalars and oneof members are boxed
+     */
+    private void generateFieldConstructor(String className) {
+        List<String> parameters = new ArrayList<>();
         for (FieldDescriptorProto field : message.getFieldList()) {
+            String type = isOneofMember(field) ? getBaseJavaType(field) : getStorageType(message, field, options);
+            boolean nullable = hasPresenceBit(field) || isOneofMember(field);
+            parameters.add((nullable ? getBoxedType(type) : type) + " " + field.getName());
+        }
+        List<String> arguments = mapStorage(message, field -> {
             String name = field.getName();
+            if (hasPresenceBit(field) && field.getType() != FieldDescriptorProto.Type.TYPE_MESSAGE) {
+                return name + " != null ? " + name + " : " + getDefaultValue(field, options);
+            }
+            return name;
+        }, slot -> slot.oneofIndex == -1 ? getPresenceWord(slot) : getOneofSlotArgument(slot));
+
+        sb.append("    public ").append(className).append("(").append(String.join(", ", parameters)).append(") {\n");
+        sb.append("        this(").append(String.join(", ", arguments)).append(");\n");
+        sb.append("    }\n\n");
+
+        for (FieldDescriptorProto field : message.getFieldList()) {
+            if (isOneofMember(field) && isFirstOneofMember(message, field)) {
+                generateOneofCaseOf(field);
+            }
+        }
+    }
+
+    /**
+     * The case comes from the checked caseOf helper, a value slot holds whichever
+     * of the members sharing it is non-null
+     */
+    private String getOneofSlotArgument(StorageSlot slot) {
+        List<FieldDescriptorProto> members = new ArrayList<>();
+        for (FieldDescriptorProto field : message.getFieldList()) {
+            if (isOneofMember(field) && field.getOneofIndex() == slot.oneofIndex) {
+                members.add(field);
+            }
+        }
+        if (slot.name.equals(getOneofCaseSlot(message, members.get(0)))) {
+            List<String> names = new ArrayList<>();
+            for (FieldDescriptorProto member : members) {
+                names.add(member.getName());
+            }
+            return slot.name + "Of(" + String.join(", ", names) + ")";
+        }
+        members.removeIf(member -> !slot.name.equals(getOneofValueSlot(message, member)));
+        // A null reference member is already the empty Object slot
+        FieldDescriptorProto last = slot.type.equals("Object") ? members.remove(members.size() - 1) : null;
+        StringBuilder value = new StringBuilder();
+        for (FieldDescriptorProto member : members) {
+            value.append(member.getName()).append(" != null ? ");
+            value.append(encodeOneofValue(member, member.getName())).append(" : ");
+        }
+        return value.append(last != null ? last.getName() : slot.defaultValue).toString();
+    }
+
+    /**
+     * Field number of the single non-null member, rejecting a second one so the
+     * case always matches the value slots
+     */
+    private void generateOneofCaseOf(FieldDescriptorProto first) {
+        List<FieldDescriptorProto> members = getOneofMembers(message, first);
+        String oneof = getOneofName(message, first);
+        List<String> parameters = new ArrayList<>();
+        for (FieldDescriptorProto member : members) {
+            parameters.add(getBoxedType(getBaseJavaType(member)) + " " + member.getName());
+        }
+        sb.append("    private static int ").append(getOneofCaseSlot(message, first)).append("Of(");
+        sb.append(String.join(", ", parameters)).append(") {\n");
+        sb.append("        int number = 0;\n");
+        for (FieldDescriptorProto member : members) {
+            sb.append("        if (").append(member.getName()).append(" != null) {\n");
+            if (member != first) {
+                sb.append("            if (number != 0) {\n");
+                sb.append("                throw new IllegalArgumentException(\"At most one member of oneof ");
+                sb.append(oneof).append(" can be set\");\n");
+                sb.append("            }\n");
+            }
+            sb.append("            number = ").append(member.getNumber()).append(";\n");
+            sb.append("        }\n");
+        }
+        sb.append("        return number;\n");
+        sb.append("    }\n\n");
+    }
+
+    /**
+     * Bitmask word with a bit set for each of its fields passed as non-null
+     */
+    private String getPresenceWord(StorageSlot word) {
+        List<String> bits = new ArrayList<>();
+        String zero = word.type.equals("long") ? "0L" : "0";
+        for (FieldDescriptorProto field : message.getFieldList()) {
+            if (hasPresenceBit(field) && getPresenceSlot(message, field).equals(word.name)) {
+                bits.add("(" + field.getName() + " != null ? " + getPresenceMask(message, field) + " : " + zero + ")");
+            }
+        }
+        return String.join(" | ", bits);
+    }
+
+    private List<String> getStorageDeclarations() {
+        return mapStorage(message,
+                field -> getStorageType(message, field, options) + " " + field.getName(),
+                slot -> slot.type + " " + slot.name);
+    }
+
+    /**
+     * Value classes cannot cache lazily, so the size is computed from the
+     * constructor arguments before the fields are published. Sub-messages
+     * already carry their own memoized size, keeping this O(fields).
+     */
+    private void generateMemoizingConstructorBody() {
+        for (FieldDescriptorProto field : message.getFieldList()) {
             if (isRepeatedField(field)) {
-                sb.append("        this.").append(name);
-                sb.append(" = ").append(name).append(" == null ? List.of() : List.copyOf(");
-                sb.append(name).append(");\n");
-            } else {
-                sb.append("        this.").append(name).append(" = ").append(name).append(";\n");
+                sb.append("        ").append(field.getName()).append(" = ");
+                sb.append(getRepeatedNormalization(field)).append(";\n");
             }
         }
+        List<String> names = mapStorage(message, FieldDescriptorProto::getName, slot -> slot.name);
+        for (String name : names) {
+            sb.append("        this.").append(name).append(" = ").append(name).append(";\n");
+        }
+        sb.append("        this.serializedSize = computeSerializedSize(").append(String.join(", ", names)).append(");\n");
+    }
+
+    /**
+     * Size of the constructor arguments. The parameters take the reserved $ prefix,
+     * so the locals of the size code (item, messageSize, ...) never clash with a
+     * field of the same name.
+     */
+    private void generateMemoizedSizeComputation() {
+        List<String> parameters = mapStorage(message,
+                field -> getStorageType(message, field, options) + " $" + field.getName(),
+                slot -> slot.type + " $" + slot.name);
+        sb.append("    private static int computeSerializedSize(").append(String.join(", ", parameters)).append(") {\n");
+        sb.append("        int size = 0;\n");
+        generateSizeComputation("$", "size");
+        sb.append("        return size;\n");
         sb.append("    }\n\n");
     }
 
+    /**
+     * Lists are defensively copied, primitive containers are already immutable
+     */
+    private String getRepeatedNormalization(FieldDescriptorProto field) {
+        String name = field.getName();
+        if (isArrayContainerField(field, options) || isMapField(message, field)) {
+            return name + " == null ? " + getDefaultValue(message, field, options) + " : " + name;
+        }
+        return name + " == null ? List.of() : List.copyOf(" + name + ")";
+    }
+
     private void generateGetters() {
         for (FieldDescriptorProto field : message.getFieldList()) {
-            String methodName = "get" + capitalize(field.getName());
-            sb.append("    public ").append(getJavaType(field));
+            if (isEnumField(field)) {
+                generateEnumGetter(field);
+            }
+            if (hasPresenceBit(field)) {
+                sb.append("    public boolean has").append(capitalize(field.getName())).append("() {\n");
+                sb.append("        return ").append(getPresenceCheck(message, field, "")).append(";\n");
+                sb.append("    }\n\n");
+            }
+            String methodName = "get" + getAccessorName(field);
+            sb.append("    public ").append(getJavaType(message, field, options));
             sb.append(" ").append(methodName).append("() {\n");
+            if (isOneofMember(field)) {
+                sb.append("        return ").append(getOneofCaseSlot(message, field)).append(" == ");
+                sb.append(field.getNumber()).append(" ? ");
+                sb.append(decodeOneofValue(field, getOneofValueSlot(message, field))).append(" : ");
+                sb.append(getDefaultValue(field, options)).append(";\n");
+                sb.append("    }\n\n");
+                sb.append("    public boolean has").append(capitalize(field.getName())).append("() {\n");
+                sb.append("        return ").append(getOneofCaseSlot(message, field)).append(" == ");
+                sb.append(field.getNumber()).append(";\n");
+                sb.append("    }\n\n");
+                continue;
+            }
+            if (isLazyMessageField(field, options)) {
+                sb.append("        return ").append(field.getName()).append(" == null ? null : ");
+                sb.append(field.getName()).append(".get();\n");
+                sb.append("    }\n\n");
+                // The holder itself, so toBuilder() can carry the payload without decoding it
+                sb.append("    public ").append(getStorageType(field, options)).append(" ").append(methodName);
+                sb.append("Lazy() {\n");
+                sb.append("        return ").append(field.getName()).append(";\n");
+                sb.append("    }\n\n");
+                continue;
+            }
+            if (isLazyStringField(field, options)) {
+                sb.append("        return ").append(field.getName()).append(".toStringUtf8();\n");
+                sb.append("    }\n\n");
+                // Raw UTF-8 access for callers that only compare or forward the value
+                sb.append("    public ByteString ").append(methodName).append("Bytes() {\n");
+            }
             sb.append("        return ").append(field.getName()).append(";\n");
             sb.append("    }\n\n");
         }
     }
 
+    /**
+     * Typed view of a raw enum number, resolved on each call with an array lookup
+     */
+    private void generateEnumGetter(FieldDescriptorProto field) {
+        String enumType = getEnumJavaType(field);
+        String name = field.getName();
+        if (isRepeatedField(field)) {
+            sb.append("    public ").append(enumType).append(" get").append(capitalize(name));
+            sb.append("(int index) {\n");
+            sb.append("        ").append(enumType).append(" value = ").append(enumType);
+            sb.append(".forNumber(").append(name).append(".get(index));\n");
+        } else {
+            // Oneof members are stored in a shared slot, read them through the raw getter
+            String number = isOneofMember(field) ? "get" + getAccessorName(field) + "()" : name;
+            sb.append("    public ").append(enumType).append(" get").append(capitalize(name)).append("() {\n");
+            sb.append("        ").append(enumType).append(" value = ").append(enumType);
+            sb.append(".forNumber(").append(number).append(");\n");
+        }
+        sb.append("        return value == null ? ").append(enumType).append(".UNRECOGNIZED : value;\n");
+        sb.append("    }\n\n");
+    }
+
     private void generateWithMethods(String className) {
         for (FieldDescriptorProto field : message.getFieldList()) {
-            String methodName = "with" + capitalize(field.getName());
+            if (isEnumField(field) && !isRepeatedField(field)) {
+                sb.append("    public ").append(className).append(" with").append(capitalize(field.getName()));
+                sb.append("(").append(getEnumJavaType(field)).append(" value) {\n");
+                sb.append("        return with").append(getAccessorName(field)).append("(value.getNumber());\n");
+                sb.append("    }\n\n");
+            }
+            String methodName = "with" + getAccessorName(field);
             sb.append("    public ").append(className);
             sb.append(" ").append(methodName).append("(");
-            sb.append(getJavaType(field)).append(" value) {\n");
+            sb.append(getJavaType(message, field, options)).append(" value) {\n");
+            if (isOneofMember(field) && !isPrimitive(getBaseJavaType(field))) {
+                // A set member always has a value, clear the oneof through the builder
+                sb.append("        Objects.requireNonNull(value);\n");
+            }
             sb.append("        return new ").append(className).append("(");
+            List<String> arguments = mapStorage(message, f -> {
+                if (!f.getName().equals(field.getName())) {
+                    return "this." + f.getName();
+                } else if (isLazyStringField(field, options)) {
+                    return "ByteString.copyFromUtf8(value)";
+                } else if (isLazyMessageField(field, options)) {
+                    return "value == null ? null : LazyMessage.of(value)";
+                }
+                return "value";
+            }, slot -> {
+                if (hasPresenceBit(field) && slot.name.equals(getPresenceSlot(message, field))) {
+                    return getPresenceUpdate(field, "this." + slot.name);
+                }
+                if (!isOneofMember(field) || slot.oneofIndex != field.getOneofIndex()) {
+                    return "this." + slot.name;
+                } else if (slot.name.equals(getOneofCaseSlot(message, field))) {
+                    return String.valueOf(field.getNumber());
+                } else if (slot.name.equals(getOneofValueSlot(message, field))) {
+                    return encodeOneofValue(field, "value");
+                }
+                return slot.defaultValue;
+            });
+            sb.append(String.join(", ", arguments));
+            sb.append(");\n    }\n\n");
+        }
+    }
+
+    /**
+     * Bitmask word with field's bit set, or cleared for a null message
+     */
+    private String getPresenceUpdate(FieldDescriptorProto field, String word) {
+        String mask = getPresenceMask(message, field);
+        if (field.getType() == FieldDescriptorProto.Type.TYPE_MESSAGE) {
+            return "value != null ? " + word + " | " + mask + " : " + word + " & ~" + mask;
+        }
+        return word + " | " + mask;
+    }
 
-            boolean first = true;
-            for (FieldDescriptorProto f : message.getFieldList()) {
-                if (!first) sb.append(", ");
-                sb.append(f.getName().equals(field.getName()) ? "value" : "this." + f.getName());
-                first = false;
+    /**
+     * Per oneof: a case enum, and a sealed interface with one record per member so
+     * callers can switch over the set member with pattern matching
+     */
+    private void generateOneofAccessors() {
+        for (FieldDescriptorProto first : message.getFieldList()) {
+            if (!isOneofMember(first) || !isFirstOneofMember(message, first)) {
+                continue;
             }
-            sb.append(");\n    }\n\n");
+            List<FieldDescriptorProto> members = getOneofMembers(message, first);
+            String oneof = getOneofName(message, first);
+            String caseSlot = getOneofCaseSlot(message, first);
+            String caseType = capitalize(oneof) + "Case";
+            String viewType = capitalize(oneof) + "Oneof";
+
+            sb.append("    public enum ").append(caseType).append(" {\n");
+            for (FieldDescriptorProto member : members) {
+                sb.append("        ").append(toConstantName(member.getName()));
+                sb.append("(").append(member.getNumber()).append("),\n");
+            }
+            sb.append("        ").append(toConstantName(oneof)).append("_NOT_SET(0);\n\n");
+            sb.append("""
+                        private final int number;
+                
+                        %1$s(int number) {
+                            this.number = number;
+                        }
+                
+                        public int getNumber() {
+                            return number;
+                        }
+                
+                        public static %1$s forNumber(int number) {
+                            switch (number) {
+                """.formatted(caseType));
+            for (FieldDescriptorProto member : members) {
+                sb.append("                case ").append(member.getNumber()).append(":\n");
+                sb.append("                    return ").append(toConstantName(member.getName())).append(";\n");
+            }
+            sb.append("                case 0:\n");
+            sb.append("                    return ").append(toConstantName(oneof)).append("_NOT_SET;\n");
+            sb.append("""
+                                default:
+                                    return null;
+                            }
+                        }
+                    }
+                
+                    public %1$s get%1$s() {
+                        return %1$s.forNumber(%2$s);
+                    }
+                
+                    /**
+                     * The set member of %3$s, see get%4$s()
+                     */
+                    public sealed interface %5$s {
+                """.formatted(caseType, caseSlot, oneof, capitalize(oneof), viewType));
+            for (FieldDescriptorProto member : members) {
+                // Qualified, a record named like the member's type would shadow it
+                String type = getOneofViewType(member);
+                sb.append("        value record ").append(capitalize(member.getName())).append("(");
+                sb.append(type).append(" value) implements ").append(viewType).append(" {}\n");
+            }
+            sb.append("""
+                    }
+                
+                    /**
+                     * Set member of %1$s as a record, null if none is set
+                     */
+                    public %2$s get%3$s() {
+                        return switch (%4$s) {
+                """.formatted(oneof, viewType, capitalize(oneof), caseSlot));
+            for (FieldDescriptorProto member : members) {
+                String getter = isEnumField(member) ? capitalize(member.getName()) : getAccessorName(member);
+                sb.append("            case ").append(member.getNumber()).append(" -> new ").append(viewType);
+                sb.append(".").append(capitalize(member.getName())).append("(get").append(getter).append("());\n");
+            }
+            sb.append("            default -> null;\n");
+            sb.append("        };\n");
+            sb.append("    }\n\n");
+        }
+    }
+
+    private String getOneofViewType(FieldDescriptorProto member) {
+        if (member.getType() == FieldDescriptorProto.Type.TYPE_MESSAGE) {
+            return pkg + "." + getBaseJavaType(member);
         }
+        if (isEnumField(member)) {
+            return pkg + "." + getEnumJavaType(member);
+        }
+        return getBaseJavaType(member);
     }
 
     private void generateStaticFactory(String className) {
@@ -145,23 +549,525 @@ public class ValueClassGenerator {
                  * No intermediate builder objects for maximum performance!
                  */
                 public static %s parseFrom(byte[] data) throws IOException {
+                    return parseFrom(data, 0, data.length);
+                }
+            
+                /**
+                 * Decodes length bytes of data starting at offset, e.g. one frame of a
+                 * receive buffer, without copying the range out first
+                 */
+                public static %s parseFrom(byte[] data, int offset, int length) throws IOException {
+            """.formatted(className, className));
+        if (isFixedLayout(message)) {
+            // parseFixedLayout indexes data directly, so the range is validated first
+            sb.append("        Objects.checkFromIndexSize(offset, length, data.length);\n");
+            appendFixedLayoutAttempt(className, "data", "offset", "length", "        ");
+        }
+        if (options.isStandaloneReader()) {
+            sb.append("        return parseFrom(new WireReader(data, offset, length), 0);\n");
+        } else {
+            sb.append("        CodedInputStream input = CodedInputStream.newInstance(data, offset, length);\n");
+            sb.append("        return parseFrom(input);\n");
+        }
+        if (options.isStandaloneReader()) {
+            sb.append("""
+                    }
+                
+                    /**
+                     * Decodes the reader's remaining range. A reader kept by the caller and
+                     * reset() per frame makes parsing a stream of frames allocation-free
+                     * apart from the values themselves. Not thread-safe, use one per thread.
+                     */
+                    public static %s parseFrom(WireReader input) throws IOException {
+                        return parseFrom(input, 0);
+                """.formatted(className));
+        }
+        sb.append("""
+                }
+            
+                /**
+                 * Decodes the remaining bytes of a heap or direct buffer in place, no copy
+                 * into a temporary byte[]. The buffer position is left unchanged.
+                 */
+                public static %s parseFrom(ByteBuffer data) throws IOException {
+            """.formatted(className));
+        if (isFixedLayout(message)) {
+            sb.append("        if (data.hasArray()) {\n");
+            appendFixedLayoutAttempt(className, "data.array()", "data.arrayOffset() + data.position()",
+                    "data.remaining()", "            ");
+            sb.append("        }\n");
+        }
+        if (options.isStandaloneReader()) {
+            sb.append("""
+                        if (data.hasArray()) {
+                            return parseFrom(new WireReader(data.array(), data.arrayOffset() + data.position(), data.remaining()), 0);
+                        }
+                """);
+        }
+        sb.append("""
                     CodedInputStream input = CodedInputStream.newInstance(data);
                     return parseFrom(input);
                 }
             
+                /**
+                 * Like parseFrom(ByteBuffer), but bytes fields are slices of the buffer
+                 * instead of copies. Only safe if the buffer is never modified afterwards.
+                 */
+                public static %s parseFromAliasing(ByteBuffer data) throws IOException {
+                    CodedInputStream input = UnsafeByteOperations.unsafeWrap(data).newCodedInput();
+                    input.enableAliasing(true);
+                    return parseFrom(input);
+                }
+            
+                /**
+                 * Decodes length bytes at offset of a heap, off-heap, memory-mapped or read-only
+                 * segment in place, with ValueLayout reads and no heap copy of the message.
+                 * The offset is a long, so messages anywhere in a large mapping are reachable.
+                 */
+                public static %s parseFrom(MemorySegment segment, long offset, long length) throws IOException {
+                    return parseFrom(new SegmentReader(segment.asSlice(offset, length)), 0);
+                }
+            
                 public static %s parseFrom(CodedInputStream input) throws IOException {
-            """.formatted(className, className));
+                    return parseFrom(input, 0);
+                }
+            
+            """.formatted(className, className, className));
+
+        generateBulkParser(className);
+
+        generateDelimitedParser(className);
 
-        // Initialize local variables with defaults
+        // The same decode loop is emitted once per input type
+        if (options.isLazyMessages()) {
+            generateParseNested(className);
+        }
+
+        for (String inputType : getInputTypes()) {
+            generateReadNested(className, inputType);
+            generateMapEntryReaders(inputType);
+            sb.append("    private static ").append(className).append(" parseFrom(");
+            // $ cannot appear in a proto field name, so parameters never clash with field locals
+            sb.append(inputType).append(" input, int $depth) throws IOException {\n");
+            generateParseBody(className, false);
+        }
+
+        if (hasFieldMask(message)) {
+            generateProjectedParser(className);
+        }
+
+        if (isFixedLayout(message)) {
+            generateFixedLayoutParser(className);
+        }
+    }
+
+    /**
+     * Canonical encoding of a message made only of fixed-width fields, with every field
+     * present once in field-number order. Each tag and value then sits at a known offset.
+     */
+    private List<FieldDescriptorProto> getFixedLayoutOrder() {
+        List<FieldDescriptorProto> fields = new ArrayList<>(message.getFieldList());
+        fields.sort(Comparator.comparingInt(FieldDescriptorProto::getNumber));
+        return fields;
+    }
+
+    private void generateFixedLayoutConstants() {
+        int size = 0;
+        for (FieldDescriptorProto field : getFixedLayoutOrder()) {
+            size += getVarintBytes((field.getNumber() << 3) | getWireType(field)).length + getFixedSize(field);
+        }
+        sb.append("    // Size of the canonical encoding with every field present, see parseFixedLayout\n");
+        sb.append("    private static final int FIXED_LAYOUT_SIZE = ").append(size).append(";\n");
+        sb.append("    private static final VarHandle INT_LE =\n");
+        sb.append("            MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);\n");
+        sb.append("    private static final VarHandle LONG_LE =\n");
+        sb.append("            MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);\n\n");
+    }
+
+    private void appendFixedLayoutAttempt(String className, String array, String offset,
+                                          String length, String indent) {
+        sb.append(indent).append("if (").append(length).append(" == FIXED_LAYOUT_SIZE) {\n");
+        sb.append(indent).append("    ").append(className).append(" value = parseFixedLayout(");
+        sb.append(array).append(", ").append(offset).append(");\n");
+        sb.append(indent).append("    if (value != null) {\n");
+        sb.append(indent).append("        return value;\n");
+        sb.append(indent).append("    }\n");
+        sb.append(indent).append("}\n");
+    }
+
+    private void generateFixedLayoutParser(String className) {
+        sb.append("""
+                /**
+                 * Decodes FIXED_LAYOUT_SIZE bytes at offset in one shot if every tag is where
+                 * the canonical layout puts it. Returns null otherwise (fields missing,
+                 * reordered or repeated), and the caller falls back to the general parser.
+                 */
+                private static %s parseFixedLayout(byte[] data, int offset) {
+            """.formatted(className));
+
+        Map<String, String> values = new HashMap<>();
+        List<String> checks = new ArrayList<>();
+        int position = 0;
+        for (FieldDescriptorProto field : getFixedLayoutOrder()) {
+            byte[] tag = getVarintBytes((field.getNumber() << 3) | getWireType(field));
+            for (byte b : tag) {
+                checks.add("data[offset + " + position++ + "] != " + b);
+            }
+            String at = "offset + " + position;
+            switch (field.getType()) {
+                case TYPE_BOOL:
+                    // A single byte varint, anything longer is not the canonical layout
+                    checks.add("data[" + at + "] < 0");
+                    values.put(field.getName(), "data[" + at + "] != 0");
+                    break;
+                case TYPE_FLOAT:
+                    values.put(field.getName(), "Float.intBitsToFloat((int) INT_LE.get(data, " + at + "))");
+                    break;
+                case TYPE_DOUBLE:
+                    values.put(field.getName(), "Double.longBitsToDouble((long) LONG_LE.get(data, " + at + "))");
+                    break;
+                default:
+                    String handle = getFixedSize(field) == 4 ? "(int) INT_LE" : "(long) LONG_LE";
+                    values.put(field.getName(), handle + ".get(data, " + at + ")");
+                    break;
+            }
+            position += getFixedSize(field);
+        }
+
+        sb.append("        if (");
+        for (int i = 0; i < checks.size(); i++) {
+            if (i > 0) sb.append("\n                || ");
+            sb.append(checks.get(i));
+        }
+        sb.append(") {\n");
+        sb.append("            return null;\n");
+        sb.append("        }\n");
+        sb.append("        return new ").append(className).append("(");
+        boolean first = true;
         for (FieldDescriptorProto field : message.getFieldList()) {
-            sb.append("        ").append(getJavaType(field)).append(" ");
-            sb.append(field.getName()).append(" = ").append(getDefaultValue(field)).append(";\n");
+            if (!first) sb.append(",\n                ");
+            sb.append(values.get(field.getName()));
+            first = false;
+        }
+        sb.append(");\n");
+        sb.append("    }\n\n");
+    }
+
+    /**
+     * parseAll decodes a batch into a caller-sized array. With standalone_reader a
+     * single WireReader is reset per item instead of allocating a decoder each time.
+     * parseAllParallel splits the same loop over disjoint ranges of dest.
+     */
+    private void generateBulkParser(String className) {
+        boolean reuse = options.isStandaloneReader();
+        sb.append("""
+                /**
+                 * Decodes inputs[i] into dest[i], dest must hold at least inputs.length values
+                 */
+                public static void parseAll(byte[][] inputs, %1$s[] dest) throws IOException {
+                    Objects.checkFromIndexSize(0, inputs.length, dest.length);
+                    parseRange(inputs, dest, 0, inputs.length);
+                }
+            
+                public static void parseAllParallel(byte[][] inputs, %1$s[] dest) throws IOException {
+                    parseAllParallel(inputs, dest, ForkJoinPool.commonPool());
+                }
+            
+                /**
+                 * Like parseAll, but ranges of PARALLEL_THRESHOLD inputs are decoded as
+                 * fork-join tasks on pool, each writing its own slice of dest. Batches no
+                 * larger than the threshold are decoded on the calling thread.
+                 */
+                public static void parseAllParallel(byte[][] inputs, %1$s[] dest, ForkJoinPool pool) throws IOException {
+                    Objects.checkFromIndexSize(0, inputs.length, dest.length);
+                    if (inputs.length <= PARALLEL_THRESHOLD) {
+                        parseRange(inputs, dest, 0, inputs.length);
+                        return;
+                    }
+                    try {
+                        pool.invoke(new ParseTask(inputs, dest, 0, inputs.length));
+                    } catch (UncheckedIOException e) {
+                        throw e.getCause();
+                    }
+                }
+            
+                private static void parseRange(byte[][] inputs, %1$s[] dest, int from, int to) throws IOException {
+            """.formatted(className));
+        if (reuse) {
+            sb.append("""
+                        WireReader reader = new WireReader();
+                        for (int i = from; i < to; i++) {
+                            byte[] data = inputs[i];
+                            dest[i] = parseFrom(reader, data, 0, data.length);
+                        }
+                """);
+        } else {
+            sb.append("""
+                        for (int i = from; i < to; i++) {
+                            dest[i] = parseFrom(inputs[i]);
+                        }
+                """);
+        }
+        sb.append("""
+                }
+            
+                /**
+                 * Decodes the remaining bytes of each buffer into dest, in list order.
+                 * Buffer positions are left unchanged.
+                 */
+                public static void parseAll(List<ByteBuffer> inputs, %s[] dest) throws IOException {
+                    Objects.checkFromIndexSize(0, inputs.size(), dest.length);
+            """.formatted(className));
+        if (reuse) {
+            sb.append("""
+                        WireReader reader = new WireReader();
+                        int i = 0;
+                        for (ByteBuffer data : inputs) {
+                            dest[i++] = data.hasArray()
+                                    ? parseFrom(reader, data.array(), data.arrayOffset() + data.position(), data.remaining())
+                                    : parseFrom(data);
+                        }
+                    }
+                
+                    private static %s parseFrom(WireReader reader, byte[] data, int offset, int length) throws IOException {
+                """.formatted(className));
+            if (isFixedLayout(message)) {
+                appendFixedLayoutAttempt(className, "data", "offset", "length", "        ");
+            }
+            sb.append("        return parseFrom(reader.reset(data, offset, length), 0);\n");
+        } else {
+            sb.append("""
+                        int i = 0;
+                        for (ByteBuffer data : inputs) {
+                            dest[i++] = parseFrom(data);
+                        }
+                """);
         }
+        sb.append("""
+                }
+            
+                // Never serialized, RecursiveAction is Serializable only by inheritance
+                @SuppressWarnings("serial")
+                private static final class ParseTask extends RecursiveAction {
+            
+                    private final byte[][] inputs;
+                    private final %1$s[] dest;
+                    private final int from;
+                    private final int to;
+            
+                    ParseTask(byte[][] inputs, %1$s[] dest, int from, int to) {
+                        this.inputs = inputs;
+                        this.dest = dest;
+                        this.from = from;
+                        this.to = to;
+                    }
+            
+                    @Override
+                    protected void compute() {
+                        if (to - from <= PARALLEL_THRESHOLD) {
+                            try {
+                                parseRange(inputs, dest, from, to);
+                            } catch (IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                            return;
+                        }
+                        int mid = (from + to) >>> 1;
+                        invokeAll(new ParseTask(inputs, dest, from, mid), new ParseTask(inputs, dest, mid, to));
+                    }
+                }
+            
+            """.formatted(className));
+    }
 
+    /**
+     * Length-prefixed streams: one message via parseDelimitedFrom, or all of them
+     * through a DelimitedReader decoding out of a single reusable buffer
+     */
+    private void generateDelimitedParser(String className) {
         sb.append("""
+                /**
+                 * Reads one varint length-prefixed message, null if input is already at its end
+                 */
+                public static %1$s parseDelimitedFrom(InputStream input) throws IOException {
+                    return parseDelimitedFrom(input, DelimitedReader.DEFAULT_SIZE_LIMIT);
+                }
             
-                    while (!input.isAtEnd()) {
-                        int tag = input.readTag();
+                /**
+                 * Like parseDelimitedFrom(InputStream), rejecting a length prefix above
+                 * sizeLimit before anything is allocated for the message
+                 */
+                public static %1$s parseDelimitedFrom(InputStream input, int sizeLimit) throws IOException {
+                    int firstByte = input.read();
+                    if (firstByte == -1) {
+                        return null;
+                    }
+                    int size = CodedInputStream.readRawVarint32(firstByte, input);
+                    if (size < 0) {
+                        throw new InvalidProtocolBufferException("Encountered an embedded string or message which claimed to have negative size.");
+                    }
+                    if (size > sizeLimit) {
+                        throw new InvalidProtocolBufferException("Protocol message was too large.  May be malicious.  Use parseDelimitedFrom(input, sizeLimit) to increase the size limit.");
+                    }
+                    byte[] data = input.readNBytes(size);
+                    if (data.length != size) {
+                        throw new InvalidProtocolBufferException("While parsing a protocol message, the input ended unexpectedly in the middle of a field.");
+                    }
+                    return parseFrom(data);
+                }
+            
+                /**
+                 * Iterates all length-prefixed messages of input, as written by writeDelimitedTo
+                 */
+                public static DelimitedReader<%1$s> delimitedReader(InputStream input) {
+            """.formatted(className));
+        appendDelimitedReaderFactory(className, "input");
+        sb.append("""
+                }
+            
+                public static DelimitedReader<%s> delimitedReader(ReadableByteChannel channel) {
+            """.formatted(className));
+        appendDelimitedReaderFactory(className, "channel");
+        sb.append("    }\n\n");
+    }
+
+    private void appendDelimitedReaderFactory(String className, String source) {
+        if (options.isStandaloneReader()) {
+            // One WireReader per stream, reset for every frame
+            sb.append("        WireReader reader = new WireReader();\n");
+            sb.append("        return DelimitedReader.of(").append(source);
+            sb.append(", (data, offset, length) -> parseFrom(reader, data, offset, length));\n");
+        } else {
+            sb.append("        return DelimitedReader.of(").append(source).append(", ");
+            sb.append(className).append("::parseFrom);\n");
+        }
+    }
+
+    /**
+     * CodedInputStream backs the public stream API, WireReader the byte[] entry points
+     * and SegmentReader the MemorySegment ones
+     */
+    private List<String> getInputTypes() {
+        List<String> inputTypes = new ArrayList<>(getProjectedInputTypes());
+        inputTypes.add(SegmentReaderGenerator.CLASS_NAME);
+        return inputTypes;
+    }
+
+    /**
+     * Masked decoding is offered for streams and byte[] input only
+     */
+    private List<String> getProjectedInputTypes() {
+        if (options.isStandaloneReader()) {
+            return List.of("CodedInputStream", WireReaderGenerator.CLASS_NAME);
+        }
+        return List.of("CodedInputStream");
+    }
+
+    /**
+     * Writers taking precomputed raw tags: SegmentWriter for writeTo(MemorySegment),
+     * plus WireWriter for byte[] targets with standalone_writer
+     */
+    private List<String> getRawOutputTypes() {
+        if (options.isStandaloneWriter()) {
+            return List.of(WireWriterGenerator.CLASS_NAME, SegmentWriterGenerator.CLASS_NAME);
+        }
+        return List.of(SegmentWriterGenerator.CLASS_NAME);
+    }
+
+    private void generateReadNested(String className, String inputType) {
+        sb.append("""
+                /**
+                 * Reads a length-delimited %s from the enclosing message's stream.
+                 * The payload is bounded with pushLimit/popLimit, so no bytes are copied
+                 * and no new %s is allocated per nesting level.
+                 */
+                public static %s readNested(%s input, int $depth) throws IOException {
+                    if ($depth >= RECURSION_LIMIT) {
+                        throw new InvalidProtocolBufferException("Protocol message had too many levels of nesting");
+                    }
+                    int length = input.readRawVarint32();
+                    int oldLimit = input.pushLimit(length);
+                    %s value = parseFrom(input, $depth + 1);
+                    input.popLimit(oldLimit);
+                    return value;
+                }
+            
+            """.formatted(className, inputType, className, inputType, className));
+    }
+
+    /**
+     * Entry point for LazyMessage, whose payload has already been cut out of the
+     * enclosing stream and so has no length prefix for readNested to consume
+     */
+    private void generateParseNested(String className) {
+        sb.append("""
+                /**
+                 * Decodes an unprefixed sub-message payload found at nesting level $depth,
+                 * applying the same recursion limit as readNested
+                 */
+                public static %s parseNested(CodedInputStream input, int $depth) throws IOException {
+                    if ($depth >= RECURSION_LIMIT) {
+                        throw new InvalidProtocolBufferException("Protocol message had too many levels of nesting");
+                    }
+                    return parseFrom(input, $depth + 1);
+                }
+            
+            """.formatted(className));
+    }
+
+    /**
+     * parseFrom(data, $fieldMask) decodes only the masked fields. It is a separate loop
+     * so the full parser pays nothing for the per-field mask checks.
+     */
+    private void generateProjectedParser(String className) {
+        String maskType = getFieldMaskType(className);
+        String arrayInput = options.isStandaloneReader()
+                ? "new WireReader(data, 0, data.length)"
+                : "CodedInputStream.newInstance(data)";
+        sb.append("""
+                /**
+                 * Decodes only the fields selected in the %s mask. The others are
+                 * skipped with a single seek and left at their default value.
+                 */
+                public static %s parseFrom(byte[] data, long $fieldMask) throws IOException {
+                    return parseFrom(%s, 0, $fieldMask);
+                }
+            
+                public static %s parseFrom(CodedInputStream input, long $fieldMask) throws IOException {
+                    return parseFrom(input, 0, $fieldMask);
+                }
+            
+            """.formatted(maskType, className, arrayInput, className));
+        for (String inputType : getProjectedInputTypes()) {
+            sb.append("    private static ").append(className).append(" parseFrom(");
+            sb.append(inputType).append(" input, int $depth, long $fieldMask) throws IOException {\n");
+            generateParseBody(className, true);
+        }
+    }
+
+    private void generateParseBody(String className, boolean projected) {
+        // Initialize local variables with defaults, repeated scalars collect into a growable builder
+        List<String> locals = mapStorage(message, field -> {
+            DescriptorProto entry = getMapEntry(message, field);
+            if (entry != null) {
+                return getMapBuilderType(entry) + " " + field.getName() + " = null";
+            }
+            if (isArrayContainerField(field, options)) {
+                return getJavaType(field, options) + ".Builder " + field.getName() + " = null";
+            }
+            return getStorageType(field, options) + " " + field.getName() + " = " + getDefaultValue(field, options);
+        }, slot -> slot.type + " " + slot.name + " = " + slot.defaultValue);
+        for (String local : locals) {
+            sb.append("        ").append(local).append(";\n");
+        }
+
+        sb.append("\n        int tag = input.readTag();\n");
+        if (!projected) {
+            generatePredictedOrder();
+        }
+
+        sb.append("""
+                    while (tag != 0) {
                         switch (tag) {
             """);
 
@@ -170,25 +1076,13 @@ public class ValueClassGenerator {
             int tag = (field.getNumber() << 3) | getWireType(field);
             sb.append("                case ").append(tag).append(": // field ").append(field.getNumber());
             sb.append(": ").append(field.getName()).append("\n");
-
-            if (isRepeatedField(field)) {
-                sb.append("""
-                                    if (%s.isEmpty()) {
-                                        %s = new ArrayList<>();
-                                    }
-                                    %s.add(%s);
-                                    break;
-                    """.formatted(
-                        field.getName(),
-                        field.getName(),
-                        field.getName(),
-                        getReadExpression(field)
-                ));
-            } else {
-                sb.append("                    ").append(field.getName()).append(" = ");
-                sb.append(getReadExpression(field));
-                sb.append(";\n");
-                sb.append("                    break;\n");
+            if (projected) {
+                appendProjectionCheck(field, "                    ");
+            }
+            appendFieldRead(field, "                    ");
+            sb.append("                    break;\n");
+            if (isPackable(field)) {
+                generatePackedCase(field, projected);
             }
         }
 
@@ -197,65 +1091,531 @@ public class ValueClassGenerator {
                                 input.skipField(tag);
                                 break;
                         }
+                        tag = input.readTag();
                     }
             
             """);
 
         // Construct and return value class
         sb.append("        return new ").append(className).append("(");
-        boolean first = true;
-        for (FieldDescriptorProto field : message.getFieldList()) {
-            if (!first) sb.append(", ");
-            sb.append(field.getName());
-            first = false;
-        }
+        List<String> arguments = mapStorage(message, field -> {
+            String name = field.getName();
+            if (isArrayContainerField(field, options) || isMapField(message, field)) {
+                return name + " == null ? " + getDefaultValue(message, field, options) + " : " + name + ".build()";
+            }
+            return name;
+        }, slot -> slot.name);
+        sb.append(String.join(", ", arguments));
         sb.append(");\n");
         sb.append("    }\n\n");
     }
 
+    /**
+     * Encoders write fields in field-number order, so each field's usual tag is tested
+     * once in that order with a predictable compare before falling back to the switch.
+     * Runs of an unpacked repeated field are consumed in a tight loop.
+     */
+    private void generatePredictedOrder() {
+        List<FieldDescriptorProto> fields = new ArrayList<>(message.getFieldList());
+        fields.sort(Comparator.comparingInt(FieldDescriptorProto::getNumber));
+        for (FieldDescriptorProto field : fields) {
+            boolean packed = isPacked(field);
+            int tag = (field.getNumber() << 3) | (packed ? 2 : getWireType(field));
+            String loop = isRepeatedField(field) && !packed ? "while" : "if";
+            sb.append("        ").append(loop).append(" (tag == ").append(tag).append(") { // field ");
+            sb.append(field.getNumber()).append(": ").append(field.getName()).append("\n");
+            if (packed) {
+                appendPackedRead(field, "            ");
+            } else {
+                appendFieldRead(field, "            ");
+            }
+            sb.append("            tag = input.readTag();\n");
+            sb.append("        }\n");
+        }
+        sb.append("\n");
+    }
+
+    /**
+     * Decodes one occurrence of the field (one element for repeated fields) into its local
+     */
+    private void appendFieldRead(FieldDescriptorProto field, String indent) {
+        DescriptorProto entry = getMapEntry(message, field);
+        if (entry != null) {
+            String name = field.getName();
+            sb.append(indent).append("if (").append(name).append(" == null) {\n");
+            sb.append(indent).append("    ").append(name).append(" = ");
+            sb.append(getMapContainerClassName(entry)).append(".newBuilder();\n");
+            sb.append(indent).append("}\n");
+            sb.append(indent).append("read").append(capitalize(name)).append("Entry(input, ");
+            sb.append(name).append(", $depth);\n");
+        } else if (isOneofMember(field)) {
+            appendOneofRead(field, indent);
+        } else if (isRepeatedField(field)) {
+            appendRepeatedInit(field, indent);
+            sb.append(indent).append(field.getName()).append(".add(");
+            sb.append(getReadExpression(field)).append(");\n");
+        } else {
+            sb.append(indent).append(field.getName()).append(" = ");
+            sb.append(getReadExpression(field, options)).append(";\n");
+            if (hasPresenceBit(field)) {
+                sb.append(indent).append(getPresenceSlot(message, field)).append(" |= ");
+                sb.append(getPresenceMask(message, field)).append(";\n");
+            }
+        }
+    }
+
+    /**
+     * The last member read wins, the other slot is reset so it holds no stale value
+     */
+    private void appendOneofRead(FieldDescriptorProto field, String indent) {
+        String caseSlot = getOneofCaseSlot(message, field);
+        String valueSlot = getOneofValueSlot(message, field);
+        sb.append(indent).append(caseSlot).append(" = ").append(field.getNumber()).append(";\n");
+        sb.append(indent).append(valueSlot).append(" = ");
+        sb.append(encodeOneofValue(field, getReadExpression(field, options))).append(";\n");
+        for (StorageSlot slot : getOneofSlots(message, field)) {
+            if (slot.name.equals(caseSlot) || slot.name.equals(valueSlot)) {
+                continue;
+            }
+            sb.append(indent).append(slot.name).append(" = ").append(slot.defaultValue).append(";\n");
+        }
+    }
+
+    /**
+     * Unselected fields are skipped without decoding, length-delimited ones with one seek
+     */
+    private void appendProjectionCheck(FieldDescriptorProto field, String indent) {
+        sb.append(indent).append("if (($fieldMask & ").append(getFieldMaskType(message.getName())).append(".");
+        sb.append(getFieldMaskConstant(field)).append(") == 0) {\n");
+        sb.append(indent).append("    input.skipField(tag);\n");
+        sb.append(indent).append("    break;\n");
+        sb.append(indent).append("}\n");
+    }
+
+    private void appendRepeatedInit(FieldDescriptorProto field, String indent) {
+        String name = field.getName();
+        if (isArrayContainerField(field, options)) {
+            sb.append(indent).append("if (").append(name).append(" == null) {\n");
+            sb.append(indent).append("    ").append(name).append(" = ");
+            sb.append(getJavaType(field, options)).append(".newBuilder();\n");
+        } else {
+            sb.append(indent).append("if (").append(name).append(".isEmpty()) {\n");
+            sb.append(indent).append("    ").append(name).append(" = new ArrayList<>();\n");
+        }
+        sb.append(indent).append("}\n");
+    }
+
+    /**
+     * Packed and unpacked encodings must both be accepted for packable fields
+     */
+    private void generatePackedCase(FieldDescriptorProto field, boolean projected) {
+        int packedTag = (field.getNumber() << 3) | 2; // LENGTH_DELIMITED
+        sb.append("                case ").append(packedTag).append(": { // field ").append(field.getNumber());
+        sb.append(": ").append(field.getName()).append(" (packed)\n");
+        if (projected) {
+            appendProjectionCheck(field, "                    ");
+        }
+        appendPackedRead(field, "                    ");
+        sb.append("                    break;\n");
+        sb.append("                }\n");
+    }
+
+    /**
+     * Decodes a whole packed run, the length prefix followed by the bare elements
+     */
+    private void appendPackedRead(FieldDescriptorProto field, String indent) {
+        String name = field.getName();
+        sb.append(indent).append("int packedLength = input.readRawVarint32();\n");
+        sb.append(indent).append("int packedLimit = input.pushLimit(packedLength);\n");
+        appendRepeatedInit(field, indent);
+        int fixedSize = getFixedSize(field);
+        if (fixedSize > 0) {
+            // Element count is known up front for fixed-width types
+            sb.append(indent).append(name).append(".ensureCapacity(").append(name);
+            sb.append(".size() + packedLength / ").append(fixedSize).append(");\n");
+        }
+        sb.append(indent).append("while (input.getBytesUntilLimit() > 0) {\n");
+        sb.append(indent).append("    ").append(name).append(".add(").append(getReadExpression(field)).append(");\n");
+        sb.append(indent).append("}\n");
+        sb.append(indent).append("input.popLimit(packedLimit);\n");
+    }
+
     private void generateSerialization() {
+        if (options.isStandaloneWriter()) {
+            generateStandaloneArrayWrites();
+        } else {
+            sb.append("""
+                    /**
+                     * Custom serialization - writes value class directly to wire format
+                     * No intermediate objects for maximum performance!
+                     */
+                    public byte[] toByteArray() throws IOException {
+                        byte[] result = new byte[getSerializedSize()];
+                        CodedOutputStream output = CodedOutputStream.newInstance(result);
+                        writeTo(output);
+                        output.checkNoSpaceLeft();
+                        return result;
+                    }
+                
+                    /**
+                     * Serializes into a caller-owned buffer starting at offset
+                     * Returns the number of bytes written
+                     */
+                    public int writeTo(byte[] dst, int offset) throws IOException {
+                        int size = getSerializedSize();
+                        CodedOutputStream output = CodedOutputStream.newInstance(dst, offset, size);
+                        writeTo(output);
+                        output.checkNoSpaceLeft();
+                        return size;
+                    }
+                
+                """);
+        }
+        generateDelimitedWrite();
+        sb.append("""
+                /**
+                 * Serializes into a heap, off-heap or memory-mapped segment starting at offset,
+                 * with ValueLayout stores and no heap staging copy
+                 * Returns the number of bytes written
+                 */
+                public int writeTo(MemorySegment segment, long offset) {
+                    int size = getSerializedSize();
+                    writeTo(new SegmentWriter(segment.asSlice(offset, size)));
+                    return size;
+                }
+            
+                public void writeTo(CodedOutputStream output) throws IOException {
+            """);
+        generateWriteBody(false);
+
+        for (String outputType : getRawOutputTypes()) {
+            sb.append("""
+                    /**
+                     * Same field order as writeTo(CodedOutputStream), with each tag written
+                     * as its precomputed varint bytes
+                     */
+                    public void writeTo(%s output) {
+                """.formatted(outputType));
+            generateWriteBody(true);
+        }
+
+        // Add getSerializedSize method
+        generateGetSerializedSize();
+
+        // Payload size helpers for packed varint fields
+        generatePackedSizeHelpers();
+
+        // Per-entry encoders for map fields
+        generateMapEntryWriters();
+    }
+
+    /**
+     * Decodes one map entry straight into the field's map builder, a missing key or
+     * value reads as its default and a repeated key keeps its last value
+     */
+    private void generateMapEntryReaders(String inputType) {
+        for (FieldDescriptorProto field : message.getFieldList()) {
+            DescriptorProto entry = getMapEntry(message, field);
+            if (entry == null) {
+                continue;
+            }
+            FieldDescriptorProto key = getMapKey(entry);
+            FieldDescriptorProto value = getMapValue(entry);
+            String keyDefault = getMapEntryDefault(key);
+            String keyRead = getReadExpression(key);
+            if (key.getType() == FieldDescriptorProto.Type.TYPE_BOOL) {
+                // Held as 0 and 1 in an int-keyed map
+                keyDefault = "0";
+                keyRead = "(" + keyRead + " ? 1 : 0)";
+            }
+            String valueRead = getReadExpression(value);
+            if (value.getType() == FieldDescriptorProto.Type.TYPE_MESSAGE) {
+                // The entry is one nesting level, the value message the next
+                valueRead = getBaseJavaType(value) + ".readNested(input, $depth + 1)";
+            }
+            sb.append("""
+                    private static void read%sEntry(%s input, %s map, int $depth) throws IOException {
+                        int length = input.readRawVarint32();
+                        int oldLimit = input.pushLimit(length);
+                        %s key = %s;
+                        %s value = %s;
+                        int tag = input.readTag();
+                        while (tag != 0) {
+                            if (tag == %d) {
+                                key = %s;
+                            } else if (tag == %d) {
+                                value = %s;
+                            } else {
+                                input.skipField(tag);
+                            }
+                            tag = input.readTag();
+                        }
+                        input.popLimit(oldLimit);
+                        map.put(key, value);
+                    }
+                
+                """.formatted(capitalize(field.getName()), inputType, getMapBuilderType(entry),
+                    getMapKeyType(entry), keyDefault, getBaseJavaType(value), getMapEntryDefault(value),
+                    (1 << 3) | getWireType(key), keyRead, (2 << 3) | getWireType(value), valueRead));
+        }
+    }
+
+    /**
+     * Map entries hold no null, an absent message value is the default instance
+     */
+    private String getMapEntryDefault(FieldDescriptorProto field) {
+        if (field.getType() == FieldDescriptorProto.Type.TYPE_MESSAGE) {
+            return getBaseJavaType(field) + ".getDefaultInstance()";
+        }
+        return getDefaultValue(field);
+    }
+
+    /**
+     * Both key and value are always written, like protobuf-java's map entries
+     */
+    private void generateMapEntryWriters() {
+        for (FieldDescriptorProto field : message.getFieldList()) {
+            DescriptorProto entry = getMapEntry(message, field);
+            if (entry == null) {
+                continue;
+            }
+            String name = capitalize(field.getName());
+            FieldDescriptorProto key = getMapKey(entry);
+            FieldDescriptorProto value = getMapValue(entry);
+            String parameters = getMapKeyType(entry) + " key, " + getBaseJavaType(value) + " value";
+            String keyValue = key.getType() == FieldDescriptorProto.Type.TYPE_BOOL ? "key != 0" : "key";
+            boolean messageValue = value.getType() == FieldDescriptorProto.Type.TYPE_MESSAGE;
+
+            sb.append("    private static int compute").append(name).append("EntrySize(").append(parameters).append(") {\n");
+            if (messageValue) {
+                sb.append("        int messageSize = value.getSerializedSize();\n");
+            }
+            sb.append("        return CodedOutputStream.compute").append(getWriteMethod(key)).append("Size(1, ");
+            sb.append(keyValue).append(")\n");
+            if (messageValue) {
+                sb.append("                + CodedOutputStream.computeTagSize(2)");
+                sb.append(" + CodedOutputStream.computeUInt32SizeNoTag(messageSize) + messageSize;\n");
+            } else {
+                sb.append("                + CodedOutputStream.compute").append(getWriteMethod(value));
+                sb.append("Size(2, value);\n");
+            }
+            sb.append("    }\n\n");
+
+            sb.append("    private static void write").append(name).append("Entry(CodedOutputStream output, ");
+            sb.append(parameters).append(") throws IOException {\n");
+            sb.append("        output.writeTag(").append(field.getNumber()).append(", WireFormat.WIRETYPE_LENGTH_DELIMITED);\n");
+            sb.append("        output.writeUInt32NoTag(compute").append(name).append("EntrySize(key, value));\n");
+            sb.append("        output.write").append(getWriteMethod(key)).append("(1, ").append(keyValue).append(");\n");
+            if (messageValue) {
+                sb.append("        output.writeTag(2, WireFormat.WIRETYPE_LENGTH_DELIMITED);\n");
+                sb.append("        output.writeUInt32NoTag(value.getSerializedSize());\n");
+                sb.append("        value.writeTo(output);\n");
+            } else {
+                sb.append("        output.write").append(getWriteMethod(value)).append("(2, value);\n");
+            }
+            sb.append("    }\n\n");
+
+            for (String outputType : getRawOutputTypes()) {
+                sb.append("    private static void write").append(name).append("Entry(").append(outputType);
+                sb.append(" output, ").append(parameters).append(") {\n");
+                appendRawTag(field.getNumber(), 2, "        ");
+                sb.append("        output.writeUInt32NoTag(compute").append(name).append("EntrySize(key, value));\n");
+                appendRawTag(1, getWireType(key), "        ");
+                sb.append("        output.write").append(getWriteMethod(key)).append("NoTag(").append(keyValue).append(");\n");
+                appendRawTag(2, getWireType(value), "        ");
+                if (messageValue) {
+                    sb.append("        output.writeUInt32NoTag(value.getSerializedSize());\n");
+                    sb.append("        value.writeTo(output);\n");
+                } else {
+                    sb.append("        output.write").append(getWriteMethod(value)).append("NoTag(value);\n");
+                }
+                sb.append("    }\n\n");
+            }
+        }
+    }
+
+    /**
+     * byte[] targets are sized and bounds-checked once, then written with a WireWriter
+     */
+    private void generateStandaloneArrayWrites() {
         sb.append("""
                 /**
                  * Custom serialization - writes value class directly to wire format
                  * No intermediate objects for maximum performance!
                  */
                 public byte[] toByteArray() throws IOException {
-                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                    CodedOutputStream output = CodedOutputStream.newInstance(baos);
+                    byte[] result = new byte[getSerializedSize()];
+                    writeChecked(result, 0, result.length);
+                    return result;
+                }
+            
+                /**
+                 * Serializes into a caller-owned buffer starting at offset
+                 * Returns the number of bytes written
+                 */
+                public int writeTo(byte[] dst, int offset) throws IOException {
+                    int size = getSerializedSize();
+                    Objects.checkFromIndexSize(offset, size, dst.length);
+                    writeChecked(dst, offset, size);
+                    return size;
+                }
+            
+                private void writeChecked(byte[] dst, int offset, int size) {
+                    WireWriter output = new WireWriter(dst, offset);
                     writeTo(output);
-                    output.flush();
-                    return baos.toByteArray();
+                    if (output.getPosition() != offset + size) {
+                        throw new IllegalStateException("Serialized size changed while writing");
+                    }
                 }
             
-                public void writeTo(CodedOutputStream output) throws IOException {
             """);
+    }
+
+    /**
+     * Length prefix and payload go out in a single exactly-sized write
+     */
+    private void generateDelimitedWrite() {
+        sb.append("""
+                /**
+                 * Writes the size as a varint followed by the message, readable with
+                 * parseDelimitedFrom or delimitedReader
+                 */
+                public void writeDelimitedTo(OutputStream output) throws IOException {
+                    int size = getSerializedSize();
+                    int prefix = CodedOutputStream.computeUInt32SizeNoTag(size);
+                    byte[] buffer = new byte[prefix + size];
+            """);
+        if (options.isStandaloneWriter()) {
+            sb.append("""
+                        new WireWriter(buffer, 0).writeUInt32NoTag(size);
+                        writeChecked(buffer, prefix, size);
+                """);
+        } else {
+            sb.append("""
+                        CodedOutputStream coded = CodedOutputStream.newInstance(buffer);
+                        coded.writeUInt32NoTag(size);
+                        writeTo(coded);
+                        coded.checkNoSpaceLeft();
+                """);
+        }
+        sb.append("""
+                    output.write(buffer);
+                }
+            
+            """);
+    }
 
+    private void generateWriteBody(boolean raw) {
         // Write each field
         for (FieldDescriptorProto field : message.getFieldList()) {
             String name = field.getName();
             int fieldNumber = field.getNumber();
 
-            if (isRepeatedField(field)) {
+            if (isMapField(message, field)) {
+                sb.append("        for (int i = 0; i < this.").append(name).append(".size(); i++) {\n");
+                sb.append("            write").append(capitalize(name)).append("Entry(output, this.").append(name);
+                sb.append(".keyAt(i), this.").append(name).append(".valueAt(i));\n");
+                sb.append("        }\n");
+            } else if (isPacked(field)) {
+                // One tag and length prefix, then the bare elements
+                sb.append("        if (!this.").append(name).append(".isEmpty()) {\n");
+                if (raw) {
+                    appendRawTag(fieldNumber, 2, "            ");
+                } else {
+                    sb.append("            output.writeTag(").append(fieldNumber);
+                    sb.append(", WireFormat.WIRETYPE_LENGTH_DELIMITED);\n");
+                }
+                sb.append("            output.writeUInt32NoTag(");
+                sb.append(getPackedPayloadSizeExpression(field, "this." + name)).append(");\n");
+                appendForEach(field, "this." + name, "            ");
+                sb.append("                output.write").append(getWriteMethod(field)).append("NoTag(item);\n");
+                sb.append("            }\n");
+                sb.append("        }\n");
+            } else if (isRepeatedField(field)) {
                 // Handle repeated fields
-                sb.append("        for (").append(getBaseJavaType(field)).append(" item : ");
-                sb.append("this.").append(name).append(") {\n");
-                sb.append("            ");
-                generateWriteStatement(field, "item", fieldNumber);
+                appendForEach(field, "this." + name, "        ");
+                appendWriteStatement(field, "item", raw);
+                sb.append("        }\n");
+            } else if (isOneofMember(field)) {
+                // A set member is written even if it holds the default value
+                sb.append("        if (this.").append(getOneofCaseSlot(message, field)).append(" == ");
+                sb.append(fieldNumber).append(") {\n");
+                appendWriteStatement(field, decodeOneofValue(field, "this." + getOneofValueSlot(message, field)), raw);
                 sb.append("        }\n");
             } else {
-                // Handle singular fields - only write if not default
-                String defaultCheck = getDefaultCheck(field).replace(name, "this." + name);
-                sb.append("        if (").append(defaultCheck).append(") {\n");
-                sb.append("            ");
-                generateWriteStatement(field, "this." + name, fieldNumber);
+                // Handle singular fields - only write if set, or if not default without presence
+                String check = hasPresenceBit(field)
+                        ? getPresenceCheck(message, field, "this.")
+                        : getDefaultCheck(field, "this." + name);
+                sb.append("        if (").append(check).append(") {\n");
+                appendWriteStatement(field, "this." + name, raw);
                 sb.append("        }\n");
             }
         }
 
         sb.append("    }\n\n");
+    }
 
-        // Add getSerializedSize method
-        generateGetSerializedSize();
+    private void appendWriteStatement(FieldDescriptorProto field, String varName, boolean raw) {
+        if (raw) {
+            generateRawWriteStatement(field, varName);
+        } else {
+            sb.append("            ");
+            generateWriteStatement(field, varName, field.getNumber());
+        }
+    }
+
+    /**
+     * Precomputed tag bytes followed by the NoTag encoding of the value
+     */
+    private void generateRawWriteStatement(FieldDescriptorProto field, String varName) {
+        String indent = "            ";
+        appendRawTag(field.getNumber(), getWireType(field), indent);
+        switch (field.getType()) {
+            case TYPE_MESSAGE:
+                if (isLazyMessageField(field, options)) {
+                    sb.append("""
+                                    if (%s.hasBytes()) {
+                                        output.writeBytesNoTag(%s.getBytes());
+                                    } else {
+                                        %s message = %s.get();
+                                        output.writeUInt32NoTag(message.getSerializedSize());
+                                        message.writeTo(output);
+                                    }
+                        """.formatted(varName, varName, getBaseJavaType(field), varName));
+                    break;
+                }
+                sb.append(indent).append("output.writeUInt32NoTag(").append(varName).append(".getSerializedSize());\n");
+                sb.append(indent).append(varName).append(".writeTo(output);\n");
+                break;
+            case TYPE_STRING:
+                String stringWrite = isLazyStringField(field, options) ? "writeBytesNoTag" : "writeStringNoTag";
+                sb.append(indent).append("output.").append(stringWrite).append("(").append(varName).append(");\n");
+                break;
+            default:
+                sb.append(indent).append("output.write").append(getWriteMethod(field));
+                sb.append("NoTag(").append(varName).append(");\n");
+                break;
+        }
+    }
+
+    /**
+     * Tags below 16384 take one or two bytes, written with a single store
+     */
+    private void appendRawTag(int fieldNumber, int wireType, String indent) {
+        int tag = (fieldNumber << 3) | wireType;
+        byte[] bytes = getVarintBytes(tag);
+        sb.append(indent);
+        if (bytes.length == 2) {
+            int value = (bytes[0] & 0xFF) | (bytes[1] & 0xFF) << 8;
+            sb.append("output.writeRawShort((short) ").append(value).append(");");
+        } else {
+            for (int i = 0; i < bytes.length; i++) {
+                if (i > 0) sb.append(" ");
+                sb.append("output.writeRawByte((byte) ").append(bytes[i]).append(");");
+            }
+        }
+        sb.append(" // field ").append(fieldNumber).append(", wire type ").append(wireType).append("\n");
     }
 
     private void generateWriteStatement(FieldDescriptorProto field,
@@ -264,15 +1624,20 @@ public class ValueClassGenerator {
 
         switch (field.getType()) {
             case TYPE_MESSAGE:
+                if (isLazyMessageField(field, options)) {
+                    generateLazyMessageWrite(field, varName, fieldNumber);
+                    break;
+                }
+                // Length prefix from getSerializedSize(), payload streamed into the same output
                 sb.append("""
                     output.writeTag(%d, WireFormat.WIRETYPE_LENGTH_DELIMITED);
-                                byte[] messageBytes = %s.toByteArray();
-                                output.writeUInt32NoTag(messageBytes.length);
-                                output.writeRawBytes(messageBytes);
-                    """.formatted(fieldNumber, varName));
+                                output.writeUInt32NoTag(%s.getSerializedSize());
+                                %s.writeTo(output);
+                    """.formatted(fieldNumber, varName, varName));
                 break;
             case TYPE_STRING:
-                sb.append("output.writeString(").append(fieldNumber).append(", ").append(varName).append(");\n");
+                String stringWrite = isLazyStringField(field, options) ? "writeBytes" : "writeString";
+                sb.append("output.").append(stringWrite).append("(").append(fieldNumber).append(", ").append(varName).append(");\n");
                 break;
             case TYPE_BYTES:
                 sb.append("output.writeBytes(").append(fieldNumber).append(", ").append(varName).append(");\n");
@@ -285,6 +1650,20 @@ public class ValueClassGenerator {
     }
 
     private void generateGetSerializedSize() {
+        if (options.isMemoizeSize()) {
+            sb.append("""
+                    /**
+                     * Returns the serialized size computed once at construction
+                     */
+                    public int getSerializedSize() {
+                        return serializedSize;
+                    }
+                
+                """);
+            generateMemoizedSizeComputation();
+            return;
+        }
+
         sb.append("""
                 /**
                  * Computes the serialized size of this message
@@ -293,27 +1672,127 @@ public class ValueClassGenerator {
                     int size = 0;
             """);
 
+        generateSizeComputation("this.", "size");
+
+        sb.append("        return size;\n");
+        sb.append("    }\n\n");
+    }
+
+    /**
+     * Appends statements accumulating the wire size into the given local,
+     * reading fields through the receiver ("this." or "$" for computeSerializedSize)
+     */
+    private void generateSizeComputation(String receiver, String accumulator) {
         for (FieldDescriptorProto field : message.getFieldList()) {
-            String name = field.getName();
+            String name = receiver + field.getName();
             int fieldNumber = field.getNumber();
 
-            if (isRepeatedField(field)) {
-                sb.append("        for (").append(getBaseJavaType(field)).append(" item : ");
-                sb.append("this.").append(name).append(") {\n");
-                sb.append("            size += ");
-                generateSizeExpression(field, "item", fieldNumber);
-                sb.append(";\n        }\n");
+            if (isMapField(message, field)) {
+                sb.append("        for (int i = 0; i < ").append(name).append(".size(); i++) {\n");
+                sb.append("            int entrySize = compute").append(capitalize(field.getName())).append("EntrySize(");
+                sb.append(name).append(".keyAt(i), ").append(name).append(".valueAt(i));\n");
+                sb.append("            ").append(accumulator).append(" += CodedOutputStream.computeTagSize(");
+                sb.append(fieldNumber).append(") + CodedOutputStream.computeUInt32SizeNoTag(entrySize) + entrySize;\n");
+                sb.append("        }\n");
+            } else if (isPacked(field)) {
+                sb.append("        if (!").append(name).append(".isEmpty()) {\n");
+                sb.append("            int packedSize = ").append(getPackedPayloadSizeExpression(field, name)).append(";\n");
+                sb.append("            ").append(accumulator).append(" += CodedOutputStream.computeTagSize(");
+                sb.append(fieldNumber).append(") + CodedOutputStream.computeUInt32SizeNoTag(packedSize) + packedSize;\n");
+                sb.append("        }\n");
+            } else if (isRepeatedField(field)) {
+                appendForEach(field, name, "        ");
+                generateSizeStatement(field, "item", fieldNumber, accumulator);
+                sb.append("        }\n");
+            } else if (isOneofMember(field)) {
+                sb.append("        if (").append(receiver).append(getOneofCaseSlot(message, field)).append(" == ");
+                sb.append(fieldNumber).append(") {\n");
+                String value = decodeOneofValue(field, receiver + getOneofValueSlot(message, field));
+                generateSizeStatement(field, value, fieldNumber, accumulator);
+                sb.append("        }\n");
             } else {
-                String defaultCheck = getDefaultCheck(field).replace(name, "this." + name);
-                sb.append("        if (").append(defaultCheck).append(") {\n");
-                sb.append("            size += ");
-                generateSizeExpression(field, "this." + name, fieldNumber);
-                sb.append(";\n        }\n");
+                String check = hasPresenceBit(field)
+                        ? getPresenceCheck(message, field, receiver)
+                        : getDefaultCheck(field, name);
+                sb.append("        if (").append(check).append(") {\n");
+                generateSizeStatement(field, name, fieldNumber, accumulator);
+                sb.append("        }\n");
             }
         }
+    }
 
-        sb.append("        return size;\n");
-        sb.append("    }\n\n");
+    /**
+     * Fixed-width elements are sized by multiplication, varints through a generated helper
+     */
+    private String getPackedPayloadSizeExpression(FieldDescriptorProto field, String varName) {
+        int fixedSize = getFixedSize(field);
+        if (fixedSize > 0) {
+            return varName + ".size() * " + fixedSize;
+        }
+        return "compute" + capitalize(field.getName()) + "PackedSize(" + varName + ")";
+    }
+
+    private void generatePackedSizeHelpers() {
+        for (FieldDescriptorProto field : message.getFieldList()) {
+            if (!isPacked(field) || getFixedSize(field) > 0) {
+                continue;
+            }
+            sb.append("    private static int compute").append(capitalize(field.getName()));
+            sb.append("PackedSize(").append(getJavaType(field, options)).append(" values) {\n");
+            sb.append("        int size = 0;\n");
+            appendForEach(field, "values", "        ");
+            sb.append("            size += CodedOutputStream.compute").append(getWriteMethod(field));
+            sb.append("SizeNoTag(item);\n");
+            sb.append("        }\n");
+            sb.append("        return size;\n");
+            sb.append("    }\n\n");
+        }
+    }
+
+    /**
+     * Opens a loop binding each element to "item", to be closed by the caller.
+     * Primitive containers are walked by index so elements are never boxed.
+     */
+    private void appendForEach(FieldDescriptorProto field, String collection, String indent) {
+        String elementType = getBaseJavaType(field);
+        if (isArrayContainerField(field, options)) {
+            sb.append(indent).append("for (int i = 0; i < ").append(collection).append(".size(); i++) {\n");
+            sb.append(indent).append("    ").append(elementType).append(" item = ");
+            sb.append(collection).append(".get(i);\n");
+        } else {
+            sb.append(indent).append("for (").append(elementType).append(" item : ").append(collection).append(") {\n");
+        }
+    }
+
+    /**
+     * Untouched lazy payloads are copied through verbatim, replaced ones are re-encoded
+     */
+    private void generateLazyMessageWrite(FieldDescriptorProto field, String varName, int fieldNumber) {
+        sb.append("""
+            output.writeTag(%d, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+                        if (%s.hasBytes()) {
+                            output.writeBytesNoTag(%s.getBytes());
+                        } else {
+                            %s message = %s.get();
+                            output.writeUInt32NoTag(message.getSerializedSize());
+                            message.writeTo(output);
+                        }
+            """.formatted(fieldNumber, varName, varName, getBaseJavaType(field), varName));
+    }
+
+    private void generateSizeStatement(FieldDescriptorProto field,
+                                       String varName, int fieldNumber, String accumulator) {
+        if (isLazyMessageField(field, options)) {
+            // Unparsed payloads are sized by their byte length, never decoded
+            sb.append("            int messageSize = ").append(varName).append(".hasBytes() ? ");
+            sb.append(varName).append(".getBytes().size() : ").append(varName).append(".get().getSerializedSize();\n");
+        } else if (field.getType() == FieldDescriptorProto.Type.TYPE_MESSAGE) {
+            // Ask the sub-message for its size once, not once for the prefix and once for the payload
+            sb.append("            int messageSize = ").append(varName).append(".getSerializedSize();\n");
+        }
+        sb.append("            ").append(accumulator).append(" += ");
+        generateSizeExpression(field, varName, fieldNumber);
+        sb.append(";\n");
     }
 
     private void generateSizeExpression(FieldDescriptorProto field,
@@ -321,11 +1800,11 @@ public class ValueClassGenerator {
         switch (field.getType()) {
             case TYPE_MESSAGE:
                 sb.append("CodedOutputStream.computeTagSize(").append(fieldNumber).append(") + ");
-                sb.append("CodedOutputStream.computeUInt32SizeNoTag(").append(varName);
-                sb.append(".getSerializedSize()) + ").append(varName).append(".getSerializedSize()");
+                sb.append("CodedOutputStream.computeUInt32SizeNoTag(messageSize) + messageSize");
                 break;
             case TYPE_STRING:
-                sb.append("CodedOutputStream.computeStringSize(").append(fieldNumber);
+                String stringSize = isLazyStringField(field, options) ? "computeBytesSize" : "computeStringSize";
+                sb.append("CodedOutputStream.").append(stringSize).append("(").append(fieldNumber);
                 sb.append(", ").append(varName).append(")");
                 break;
             case TYPE_BYTES:
@@ -384,26 +1863,21 @@ public class ValueClassGenerator {
                 sb.append("CodedOutputStream.computeBoolSize(").append(fieldNumber);
                 sb.append(", ").append(varName).append(")");
                 break;
+            case TYPE_ENUM:
+                sb.append("CodedOutputStream.computeEnumSize(").append(fieldNumber);
+                sb.append(", ").append(varName).append(")");
+                break;
             default:
                 sb.append("0");
         }
     }
 
     private void appendParameters() {
-        boolean first = true;
-        for (FieldDescriptorProto field : message.getFieldList()) {
-            if (!first) sb.append(", ");
-            sb.append(getJavaType(field)).append(" ").append(field.getName());
-            first = false;
-        }
+        sb.append(String.join(", ", getStorageDeclarations()));
     }
 
     private void appendDefaults() {
-        boolean first = true;
-        for (FieldDescriptorProto field : message.getFieldList()) {
-            if (!first) sb.append(", ");
-            sb.append(getDefaultValue(field));
-            first = false;
-        }
+        sb.append(String.join(", ", mapStorage(message, field -> getDefaultValue(message, field, options),
+                slot -> slot.defaultValue)));
     }
 }
\ No newline at end of file
@@ -3,6 +3,7 @@ package com.dariobalinzo.protoc.valhalla;
 import com.google.protobuf.compiler.PluginProtos.*;
 import com.google.protobuf.DescriptorProtos.*;
 import java.io.*;
+import java.util.*;
 
 /**
  * Protoc Plugin for JEP 401 Value Classes with Serialization
@@ -10,12 +11,26 @@ import java.io.*;
  * Generates:
  * 1. Value class (immutable, identity-free) with custom serialization
  * 2. Separate Builder class (mutable, builder pattern)
+ *    and field mask constants (PersonFields) for projected parsing
+ *    plus shared primitive containers (IntArray, ...) for repeated scalars
+ *    and hash map containers (IntLongMap, StringObjectMap, ...) for map fields
+ *    and, with flatten_repeated_messages, message containers (LineItemArray, ...)
+ *    and, with lazy_messages, the LazyMessage holder
+ *    and, with standalone_reader / standalone_writer, the WireReader / WireWriter codecs
+ *    and the SegmentReader / SegmentWriter codecs behind the MemorySegment entry points
+ *    and the DelimitedReader for length-prefixed message streams
+ *    and one Java enum per proto enum
+ *    Nested messages and enums become top-level classes named Outer_Inner,
+ *    a name already taken in the Java package is reported as a plugin error
  * 3. Custom parser (parseFrom without intermediate objects)
  * 4. Custom serialization (toByteArray, writeTo)
  *
  * Usage:
  *   mvn clean package
  *   protoc --plugin=protoc-gen-value=./target/protoc-gen-value.jar --value_out=. message.proto
+ *
+ * Options (see {@link GeneratorOptions}):
+ *   protoc ... --value_opt=memoize_size message.proto
  */
 public class ValueClassPlugin {
 
@@ -27,9 +42,23 @@ public class ValueClassPlugin {
                 CodeGeneratorResponse.Feature.FEATURE_PROTO3_OPTIONAL.getNumber()
         );
 
+        GeneratorOptions options;
+        // Resolved over every file, so nested types imported from other files match too
+        Map<String, String> nestedTypeNames;
+        try {
+            options = GeneratorOptions.parse(request.getParameter());
+            nestedTypeNames = ProtoUtils.getNestedTypeNames(request.getProtoFileList());
+        } catch (IllegalArgumentException e) {
+            response.setError(e.getMessage());
+            response.build().writeTo(System.out);
+            return;
+        }
+
+        // Support classes are shared per package, emit each only once
+        Set<String> generatedFiles = new HashSet<>();
         for (FileDescriptorProto file : request.getProtoFileList()) {
             if (request.getFileToGenerateList().contains(file.getName())) {
-                generateFiles(file, response);
+                generateFiles(ProtoUtils.flattenNestedTypes(file, nestedTypeNames), options, response, generatedFiles);
             }
         }
 
@@ -37,19 +66,99 @@ public class ValueClassPlugin {
     }
 
     private static void generateFiles(FileDescriptorProto file,
-                                      CodeGeneratorResponse.Builder response) {
+                                      GeneratorOptions options,
+                                      CodeGeneratorResponse.Builder response,
+                                      Set<String> generatedFiles) {
         String javaPackage = ProtoUtils.getJavaPackage(file);
 
+        if (options.isStandaloneReader() && !file.getMessageTypeList().isEmpty()) {
+            WireReaderGenerator readerGenerator = new WireReaderGenerator(javaPackage);
+            String fileName = readerGenerator.getClassName() + ".java";
+            if (generatedFiles.add(javaPackage + "." + fileName)) {
+                addFile(response, javaPackage, fileName, readerGenerator.generate());
+            }
+        }
+        if (options.isStandaloneWriter() && !file.getMessageTypeList().isEmpty()) {
+            WireWriterGenerator writerGenerator = new WireWriterGenerator(javaPackage);
+            String fileName = writerGenerator.getClassName() + ".java";
+            if (generatedFiles.add(javaPackage + "." + fileName)) {
+                addFile(response, javaPackage, fileName, writerGenerator.generate());
+            }
+        }
+
+        for (EnumDescriptorProto enumType : file.getEnumTypeList()) {
+            EnumGenerator enumGenerator = new EnumGenerator(javaPackage, enumType);
+            addFile(response, javaPackage, enumGenerator.getClassName() + ".java", enumGenerator.generate());
+        }
+
         for (DescriptorProto message : file.getMessageTypeList()) {
             // Generate value class
-            ValueClassGenerator valueClassGenerator = new ValueClassGenerator(javaPackage, message);
+            ValueClassGenerator valueClassGenerator = new ValueClassGenerator(javaPackage, message, options);
             String valueClass = valueClassGenerator.generate();
             addFile(response, javaPackage, message.getName() + ".java", valueClass);
 
             // Generate builder class
-            BuilderGenerator builderGenerator = new BuilderGenerator(javaPackage, message);
+            BuilderGenerator builderGenerator = new BuilderGenerator(javaPackage, message, options);
             String builderClass = builderGenerator.generate();
             addFile(response, javaPackage, message.getName() + "Builder.java", builderClass);
+
+            // Generate field mask constants for projected parsing
+            if (ProtoUtils.hasFieldMask(message)) {
+                FieldMaskGenerator maskGenerator = new FieldMaskGenerator(javaPackage, message);
+                addFile(response, javaPackage, maskGenerator.getClassName() + ".java", maskGenerator.generate());
+            }
+
+            // Generate containers used by map, repeated scalar (and flattened message) fields
+            for (FieldDescriptorProto field : message.getFieldList()) {
+                DescriptorProto entry = ProtoUtils.getMapEntry(message, field);
+                if (entry != null) {
+                    MapContainerGenerator mapGenerator = new MapContainerGenerator(javaPackage,
+                            ProtoUtils.getMapKeyType(entry), ProtoUtils.getMapValueType(entry));
+                    String fileName = mapGenerator.getClassName() + ".java";
+                    if (generatedFiles.add(javaPackage + "." + fileName)) {
+                        addFile(response, javaPackage, fileName, mapGenerator.generate());
+                    }
+                } else if (ProtoUtils.isPrimitiveRepeatedField(field)) {
+                    PrimitiveArrayGenerator arrayGenerator =
+                            new PrimitiveArrayGenerator(javaPackage, ProtoUtils.getBaseJavaType(field));
+                    String fileName = arrayGenerator.getClassName() + ".java";
+                    if (generatedFiles.add(javaPackage + "." + fileName)) {
+                        addFile(response, javaPackage, fileName, arrayGenerator.generate());
+                    }
+                } else if (ProtoUtils.isLazyMessageField(field, options)) {
+                    LazyMessageGenerator lazyGenerator = new LazyMessageGenerator(javaPackage);
+                    String fileName = lazyGenerator.getClassName() + ".java";
+                    if (generatedFiles.add(javaPackage + "." + fileName)) {
+                        addFile(response, javaPackage, fileName, lazyGenerator.generate());
+                    }
+                } else if (ProtoUtils.isMessageArrayField(field, options)) {
+                    MessageArrayGenerator arrayGenerator =
+                            new MessageArrayGenerator(javaPackage, ProtoUtils.getBaseJavaType(field));
+                    String fileName = arrayGenerator.getClassName() + ".java";
+                    if (generatedFiles.add(javaPackage + "." + fileName)) {
+                        addFile(response, javaPackage, fileName, arrayGenerator.generate());
+                    }
+                }
+            }
+        }
+
+        if (!file.getMessageTypeList().isEmpty()) {
+            DelimitedReaderGenerator delimitedGenerator = new DelimitedReaderGenerator(javaPackage);
+            String fileName = delimitedGenerator.getClassName() + ".java";
+            if (generatedFiles.add(javaPackage + "." + fileName)) {
+                addFile(response, javaPackage, fileName, delimitedGenerator.generate());
+            }
+
+            SegmentReaderGenerator segmentReaderGenerator = new SegmentReaderGenerator(javaPackage);
+            fileName = segmentReaderGenerator.getClassName() + ".java";
+            if (generatedFiles.add(javaPackage + "." + fileName)) {
+                addFile(response, javaPackage, fileName, segmentReaderGenerator.generate());
+            }
+            SegmentWriterGenerator segmentWriterGenerator = new SegmentWriterGenerator(javaPackage);
+            fileName = segmentWriterGenerator.getClassName() + ".java";
+            if (generatedFiles.add(javaPackage + "." + fileName)) {
+                addFile(response, javaPackage, fileName, segmentWriterGenerator.generate());
+            }
         }
     }
 
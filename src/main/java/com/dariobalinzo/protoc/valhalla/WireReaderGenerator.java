@@ -0,0 +1,359 @@
+package com.dariobalinzo.protoc.valhalla;
+
+/**
+ * Generates the WireReader used instead of CodedInputStream when
+ * standalone_reader is enabled, one per Java package
+ */
+public class WireReaderGenerator {
+
+    static final String CLASS_NAME = "WireReader";
+
+    private final String pkg;
+
+    public WireReaderGenerator(String pkg) {
+        this.pkg = pkg;
+    }
+
+    public String getClassName() {
+        return CLASS_NAME;
+    }
+
+    public String generate() {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append("package ").append(pkg).append(";\n\n");
+        sb.append("import com.google.protobuf.ByteString;\n");
+        sb.append("import com.google.protobuf.InvalidProtocolBufferException;\n");
+        sb.append("import java.lang.invoke.MethodHandles;\n");
+        sb.append("import java.lang.invoke.VarHandle;\n");
+        sb.append("import java.nio.ByteOrder;\n");
+        sb.append("import java.nio.charset.StandardCharsets;\n");
+        sb.append("import java.util.Objects;\n\n");
+
+        sb.append("""
+            /**
+             * Minimal protobuf wire decoder over a byte[] range
+             * Mirrors the CodedInputStream methods used by generated parsers, so the
+             * parse loops are the same code, without CodedInputStream's buffer refilling,
+             * size counters and per-message allocation. Fixed-width values are read
+             * with little-endian VarHandle views, varints with unrolled loops.
+             */
+            public final class WireReader {
+
+                private static final VarHandle INT_LE =
+                        MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+                private static final VarHandle LONG_LE =
+                        MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+                private static final int RECURSION_LIMIT = 100;
+
+                private byte[] buffer;
+                private int pos;
+                // Absolute end of the current (possibly nested) message
+                private int limit;
+                private int groupDepth;
+
+                public WireReader() {
+                    this(new byte[0], 0, 0);
+                }
+
+                public WireReader(byte[] buffer, int offset, int length) {
+                    reset(buffer, offset, length);
+                }
+
+                /**
+                 * Points the reader at a new range, so one instance can decode many frames
+                 */
+                public WireReader reset(byte[] buffer, int offset, int length) {
+                    Objects.checkFromIndexSize(offset, length, buffer.length);
+                    this.buffer = buffer;
+                    this.pos = offset;
+                    this.limit = offset + length;
+                    this.groupDepth = 0;
+                    return this;
+                }
+
+                public boolean isAtEnd() {
+                    return pos == limit;
+                }
+
+                public int getBytesUntilLimit() {
+                    return limit - pos;
+                }
+
+                /**
+                 * Restricts reads to the next length bytes, returns the limit to restore
+                 */
+                public int pushLimit(int length) throws InvalidProtocolBufferException {
+                    if (length < 0) {
+                        throw new InvalidProtocolBufferException("Encountered an embedded string or message which claimed to have negative size.");
+                    }
+                    if (length > limit - pos) {
+                        throw truncated();
+                    }
+                    int oldLimit = limit;
+                    limit = pos + length;
+                    return oldLimit;
+                }
+
+                public void popLimit(int oldLimit) {
+                    limit = oldLimit;
+                }
+
+                /**
+                 * Returns 0 at the end of the current message, like CodedInputStream
+                 */
+                public int readTag() throws InvalidProtocolBufferException {
+                    if (pos == limit) {
+                        return 0;
+                    }
+                    int tag = readRawVarint32();
+                    if ((tag >>> 3) == 0) {
+                        throw new InvalidProtocolBufferException("Protocol message contained an invalid tag (zero).");
+                    }
+                    return tag;
+                }
+
+                public int readInt32() throws InvalidProtocolBufferException {
+                    return readRawVarint32();
+                }
+
+                public long readInt64() throws InvalidProtocolBufferException {
+                    return readRawVarint64();
+                }
+
+                public int readUInt32() throws InvalidProtocolBufferException {
+                    return readRawVarint32();
+                }
+
+                public long readUInt64() throws InvalidProtocolBufferException {
+                    return readRawVarint64();
+                }
+
+                public int readEnum() throws InvalidProtocolBufferException {
+                    return readRawVarint32();
+                }
+
+                public int readSInt32() throws InvalidProtocolBufferException {
+                    int n = readRawVarint32();
+                    return (n >>> 1) ^ -(n & 1);
+                }
+
+                public long readSInt64() throws InvalidProtocolBufferException {
+                    long n = readRawVarint64();
+                    return (n >>> 1) ^ -(n & 1);
+                }
+
+                public int readFixed32() throws InvalidProtocolBufferException {
+                    if (limit - pos < 4) {
+                        throw truncated();
+                    }
+                    int value = (int) INT_LE.get(buffer, pos);
+                    pos += 4;
+                    return value;
+                }
+
+                public long readFixed64() throws InvalidProtocolBufferException {
+                    if (limit - pos < 8) {
+                        throw truncated();
+                    }
+                    long value = (long) LONG_LE.get(buffer, pos);
+                    pos += 8;
+                    return value;
+                }
+
+                public int readSFixed32() throws InvalidProtocolBufferException {
+                    return readFixed32();
+                }
+
+                public long readSFixed64() throws InvalidProtocolBufferException {
+                    return readFixed64();
+                }
+
+                public float readFloat() throws InvalidProtocolBufferException {
+                    return Float.intBitsToFloat(readFixed32());
+                }
+
+                public double readDouble() throws InvalidProtocolBufferException {
+                    return Double.longBitsToDouble(readFixed64());
+                }
+
+                public boolean readBool() throws InvalidProtocolBufferException {
+                    return readRawVarint64() != 0;
+                }
+
+                public String readString() throws InvalidProtocolBufferException {
+                    int length = readLength();
+                    String value = new String(buffer, pos, length, StandardCharsets.UTF_8);
+                    pos += length;
+                    return value;
+                }
+
+                public ByteString readBytes() throws InvalidProtocolBufferException {
+                    int length = readLength();
+                    if (length == 0) {
+                        return ByteString.EMPTY;
+                    }
+                    ByteString value = ByteString.copyFrom(buffer, pos, length);
+                    pos += length;
+                    return value;
+                }
+
+                /**
+                 * Skips one field, returns false for an end-group tag like CodedInputStream
+                 */
+                public boolean skipField(int tag) throws InvalidProtocolBufferException {
+                    switch (tag & 7) {
+                        case 0:
+                            readRawVarint64();
+                            return true;
+                        case 1:
+                            skipRawBytes(8);
+                            return true;
+                        case 2:
+                            skipRawBytes(readRawVarint32());
+                            return true;
+                        case 3:
+                            skipGroup((tag & ~7) | 4);
+                            return true;
+                        case 4:
+                            return false;
+                        case 5:
+                            skipRawBytes(4);
+                            return true;
+                        default:
+                            throw new InvalidProtocolBufferException("Protocol message tag had invalid wire type.");
+                    }
+                }
+
+                private void skipGroup(int endTag) throws InvalidProtocolBufferException {
+                    if (++groupDepth >= RECURSION_LIMIT) {
+                        throw new InvalidProtocolBufferException("Protocol message had too many levels of nesting");
+                    }
+                    while (true) {
+                        int tag = readTag();
+                        if (tag == 0) {
+                            throw truncated();
+                        }
+                        if (tag == endTag) {
+                            break;
+                        }
+                        if (!skipField(tag)) {
+                            throw new InvalidProtocolBufferException("Protocol message end-group tag did not match expected tag.");
+                        }
+                    }
+                    groupDepth--;
+                }
+
+                public void skipRawBytes(int length) throws InvalidProtocolBufferException {
+                    if (length < 0 || length > limit - pos) {
+                        throw truncated();
+                    }
+                    pos += length;
+                }
+
+                private int readLength() throws InvalidProtocolBufferException {
+                    int length = readRawVarint32();
+                    if (length < 0 || length > limit - pos) {
+                        throw truncated();
+                    }
+                    return length;
+                }
+
+                /**
+                 * Unrolled decode when at least 10 bytes remain, byte-by-byte near the limit
+                 */
+                public int readRawVarint32() throws InvalidProtocolBufferException {
+                    int p = pos;
+                    if (limit - p < 10) {
+                        return (int) readRawVarint64Slow();
+                    }
+                    byte[] b = buffer;
+                    int x;
+                    if ((x = b[p++]) >= 0) {
+                        pos = p;
+                        return x;
+                    } else if ((x ^= (b[p++] << 7)) < 0) {
+                        x ^= (~0 << 7);
+                    } else if ((x ^= (b[p++] << 14)) >= 0) {
+                        x ^= (~0 << 7) ^ (~0 << 14);
+                    } else if ((x ^= (b[p++] << 21)) < 0) {
+                        x ^= (~0 << 7) ^ (~0 << 14) ^ (~0 << 21);
+                    } else {
+                        int y = b[p++];
+                        x ^= y << 28;
+                        x ^= (~0 << 7) ^ (~0 << 14) ^ (~0 << 21) ^ (~0 << 28);
+                        // Negative int32 values are sign-extended to ten bytes
+                        if (y < 0 && b[p++] < 0 && b[p++] < 0 && b[p++] < 0 && b[p++] < 0 && b[p++] < 0) {
+                            throw malformedVarint();
+                        }
+                    }
+                    pos = p;
+                    return x;
+                }
+
+                public long readRawVarint64() throws InvalidProtocolBufferException {
+                    int p = pos;
+                    if (limit - p < 10) {
+                        return readRawVarint64Slow();
+                    }
+                    byte[] b = buffer;
+                    long x;
+                    int y;
+                    if ((y = b[p++]) >= 0) {
+                        pos = p;
+                        return y;
+                    } else if ((y ^= (b[p++] << 7)) < 0) {
+                        x = y ^ (~0 << 7);
+                    } else if ((y ^= (b[p++] << 14)) >= 0) {
+                        x = y ^ ((~0 << 7) ^ (~0 << 14));
+                    } else if ((y ^= (b[p++] << 21)) < 0) {
+                        x = y ^ ((~0 << 7) ^ (~0 << 14) ^ (~0 << 21));
+                    } else if ((x = y ^ ((long) b[p++] << 28)) >= 0L) {
+                        x ^= (~0L << 7) ^ (~0L << 14) ^ (~0L << 21) ^ (~0L << 28);
+                    } else if ((x ^= ((long) b[p++] << 35)) < 0L) {
+                        x ^= (~0L << 7) ^ (~0L << 14) ^ (~0L << 21) ^ (~0L << 28) ^ (~0L << 35);
+                    } else if ((x ^= ((long) b[p++] << 42)) >= 0L) {
+                        x ^= (~0L << 7) ^ (~0L << 14) ^ (~0L << 21) ^ (~0L << 28) ^ (~0L << 35) ^ (~0L << 42);
+                    } else if ((x ^= ((long) b[p++] << 49)) < 0L) {
+                        x ^= (~0L << 7) ^ (~0L << 14) ^ (~0L << 21) ^ (~0L << 28) ^ (~0L << 35) ^ (~0L << 42)
+                                ^ (~0L << 49);
+                    } else {
+                        x ^= ((long) b[p++] << 56);
+                        x ^= (~0L << 7) ^ (~0L << 14) ^ (~0L << 21) ^ (~0L << 28) ^ (~0L << 35) ^ (~0L << 42)
+                                ^ (~0L << 49) ^ (~0L << 56);
+                        if (x < 0L && b[p++] < 0L) {
+                            throw malformedVarint();
+                        }
+                    }
+                    pos = p;
+                    return x;
+                }
+
+                private long readRawVarint64Slow() throws InvalidProtocolBufferException {
+                    long result = 0;
+                    for (int shift = 0; shift < 64; shift += 7) {
+                        if (pos == limit) {
+                            throw truncated();
+                        }
+                        byte b = buffer[pos++];
+                        result |= (long) (b & 0x7F) << shift;
+                        if ((b & 0x80) == 0) {
+                            return result;
+                        }
+                    }
+                    throw malformedVarint();
+                }
+
+                private static InvalidProtocolBufferException truncated() {
+                    return new InvalidProtocolBufferException("While parsing a protocol message, the input ended unexpectedly in the middle of a field.");
+                }
+
+                private static InvalidProtocolBufferException malformedVarint() {
+                    return new InvalidProtocolBufferException("CodedInputStream encountered a malformed varint.");
+                }
+            }
+            """);
+
+        return sb.toString();
+    }
+}
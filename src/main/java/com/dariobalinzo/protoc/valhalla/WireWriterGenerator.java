@@ -0,0 +1,231 @@
+package com.dariobalinzo.protoc.valhalla;
+
+/**
+ * Generates the WireWriter used instead of CodedOutputStream when
+ * standalone_writer is enabled, one per Java package
+ */
+public class WireWriterGenerator {
+
+    static final String CLASS_NAME = "WireWriter";
+
+    private final String pkg;
+
+    public WireWriterGenerator(String pkg) {
+        this.pkg = pkg;
+    }
+
+    public String getClassName() {
+        return CLASS_NAME;
+    }
+
+    public String generate() {
+        StringBuilder sb = new StringBuilder();
+
+        sb.append("package ").append(pkg).append(";\n\n");
+        sb.append("import com.google.protobuf.ByteString;\n");
+        sb.append("import java.lang.invoke.MethodHandles;\n");
+        sb.append("import java.lang.invoke.VarHandle;\n");
+        sb.append("import java.nio.ByteOrder;\n");
+        sb.append("import java.nio.charset.StandardCharsets;\n\n");
+
+        sb.append("""
+            /**
+             * Minimal protobuf wire encoder into a byte[]
+             * The caller sizes the destination from getSerializedSize() and checks its
+             * bounds once per message, so the writes themselves carry no capacity checks
+             * beyond the JVM's own. Tags are written by generated code as precomputed
+             * raw bytes, fixed-width values with little-endian VarHandle stores.
+             */
+            public final class WireWriter {
+
+                private static final VarHandle SHORT_LE =
+                        MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+                private static final VarHandle INT_LE =
+                        MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+                private static final VarHandle LONG_LE =
+                        MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+                private final byte[] buffer;
+                private int pos;
+
+                public WireWriter(byte[] buffer, int offset) {
+                    this.buffer = buffer;
+                    this.pos = offset;
+                }
+
+                public int getPosition() {
+                    return pos;
+                }
+
+                public void writeRawByte(byte value) {
+                    buffer[pos++] = value;
+                }
+
+                /**
+                 * Two-byte tags (field numbers 16 to 2047) in one store
+                 */
+                public void writeRawShort(short value) {
+                    SHORT_LE.set(buffer, pos, value);
+                    pos += 2;
+                }
+
+                public void writeInt32NoTag(int value) {
+                    if (value >= 0) {
+                        writeUInt32NoTag(value);
+                    } else {
+                        // Negative int32 values are sign-extended to ten bytes
+                        writeUInt64NoTag(value);
+                    }
+                }
+
+                public void writeUInt32NoTag(int value) {
+                    byte[] b = buffer;
+                    int p = pos;
+                    while ((value & ~0x7F) != 0) {
+                        b[p++] = (byte) ((value & 0x7F) | 0x80);
+                        value >>>= 7;
+                    }
+                    b[p++] = (byte) value;
+                    pos = p;
+                }
+
+                public void writeEnumNoTag(int value) {
+                    writeInt32NoTag(value);
+                }
+
+                public void writeSInt32NoTag(int value) {
+                    writeUInt32NoTag((value << 1) ^ (value >> 31));
+                }
+
+                public void writeInt64NoTag(long value) {
+                    writeUInt64NoTag(value);
+                }
+
+                public void writeUInt64NoTag(long value) {
+                    byte[] b = buffer;
+                    int p = pos;
+                    while ((value & ~0x7FL) != 0) {
+                        b[p++] = (byte) (((int) value & 0x7F) | 0x80);
+                        value >>>= 7;
+                    }
+                    b[p++] = (byte) value;
+                    pos = p;
+                }
+
+                public void writeSInt64NoTag(long value) {
+                    writeUInt64NoTag((value << 1) ^ (value >> 63));
+                }
+
+                public void writeFixed32NoTag(int value) {
+                    INT_LE.set(buffer, pos, value);
+                    pos += 4;
+                }
+
+                public void writeSFixed32NoTag(int value) {
+                    writeFixed32NoTag(value);
+                }
+
+                public void writeFixed64NoTag(long value) {
+                    LONG_LE.set(buffer, pos, value);
+                    pos += 8;
+                }
+
+                public void writeSFixed64NoTag(long value) {
+                    writeFixed64NoTag(value);
+                }
+
+                public void writeFloatNoTag(float value) {
+                    writeFixed32NoTag(Float.floatToRawIntBits(value));
+                }
+
+                public void writeDoubleNoTag(double value) {
+                    writeFixed64NoTag(Double.doubleToRawLongBits(value));
+                }
+
+                public void writeBoolNoTag(boolean value) {
+                    buffer[pos++] = (byte) (value ? 1 : 0);
+                }
+
+                public void writeBytesNoTag(ByteString value) {
+                    writeUInt32NoTag(value.size());
+                    value.copyTo(buffer, pos);
+                    pos += value.size();
+                }
+
+                /**
+                 * Encodes UTF-8 straight into the buffer after a first pass for the length.
+                 * Unpaired surrogates fall back to String.getBytes, which writes '?'
+                 * like CodedOutputStream does.
+                 */
+                public void writeStringNoTag(String value) {
+                    int utf8Length = encodedLength(value);
+                    if (utf8Length < 0) {
+                        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                        writeUInt32NoTag(bytes.length);
+                        System.arraycopy(bytes, 0, buffer, pos, bytes.length);
+                        pos += bytes.length;
+                        return;
+                    }
+                    writeUInt32NoTag(utf8Length);
+                    byte[] b = buffer;
+                    int p = pos;
+                    int length = value.length();
+                    int i = 0;
+                    // ASCII prefix, one byte per char
+                    for (char c; i < length && (c = value.charAt(i)) < 0x80; i++) {
+                        b[p++] = (byte) c;
+                    }
+                    for (; i < length; i++) {
+                        char c = value.charAt(i);
+                        if (c < 0x80) {
+                            b[p++] = (byte) c;
+                        } else if (c < 0x800) {
+                            b[p++] = (byte) (0xC0 | (c >>> 6));
+                            b[p++] = (byte) (0x80 | (c & 0x3F));
+                        } else if (!Character.isSurrogate(c)) {
+                            b[p++] = (byte) (0xE0 | (c >>> 12));
+                            b[p++] = (byte) (0x80 | ((c >>> 6) & 0x3F));
+                            b[p++] = (byte) (0x80 | (c & 0x3F));
+                        } else {
+                            int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                            b[p++] = (byte) (0xF0 | (codePoint >>> 18));
+                            b[p++] = (byte) (0x80 | ((codePoint >>> 12) & 0x3F));
+                            b[p++] = (byte) (0x80 | ((codePoint >>> 6) & 0x3F));
+                            b[p++] = (byte) (0x80 | (codePoint & 0x3F));
+                        }
+                    }
+                    pos = p;
+                }
+
+                /**
+                 * UTF-8 length of value, -1 if it contains an unpaired surrogate
+                 */
+                private static int encodedLength(String value) {
+                    int length = value.length();
+                    int utf8Length = length;
+                    for (int i = 0; i < length; i++) {
+                        char c = value.charAt(i);
+                        if (c < 0x80) {
+                            continue;
+                        }
+                        if (c < 0x800) {
+                            utf8Length += 1;
+                        } else if (!Character.isSurrogate(c)) {
+                            utf8Length += 2;
+                        } else if (Character.isHighSurrogate(c) && i + 1 < length
+                                && Character.isLowSurrogate(value.charAt(i + 1))) {
+                            // Two chars, four bytes
+                            utf8Length += 2;
+                            i++;
+                        } else {
+                            return -1;
+                        }
+                    }
+                    return utf8Length;
+                }
+            }
+            """);
+
+        return sb.toString();
+    }
+}
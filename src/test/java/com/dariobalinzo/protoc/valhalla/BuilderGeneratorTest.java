@@ -2,6 +2,8 @@ package com.dariobalinzo.protoc.valhalla;
 
 import com.google.protobuf.DescriptorProtos.DescriptorProto;
 import com.google.protobuf.DescriptorProtos.FieldDescriptorProto;
+import com.google.protobuf.DescriptorProtos.MessageOptions;
+import com.google.protobuf.DescriptorProtos.OneofDescriptorProto;
 import org.junit.jupiter.api.Test;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -31,6 +33,192 @@ class BuilderGeneratorTest {
         assertThat(generatedCode).contains("public Person build()");
     }
 
+    @Test
+    void testRepeatedScalarsGrowWithoutBoxing() {
+        DescriptorProto message = DescriptorProto.newBuilder()
+                .setName("Series")
+                .addField(FieldDescriptorProto.newBuilder()
+                        .setNumber(1)
+                        .setName("points")
+                        .setLabel(FieldDescriptorProto.Label.LABEL_REPEATED)
+                        .setType(FieldDescriptorProto.Type.TYPE_DOUBLE)
+                        .build())
+                .build();
+
+        String generatedCode = new BuilderGenerator("com.example", message).generate();
+
+        assertThat(generatedCode).contains("private final DoubleArray.Builder points = DoubleArray.newBuilder();");
+        assertThat(generatedCode).contains("this.points.addAll(original.getPoints());");
+        assertThat(generatedCode).contains("public SeriesBuilder setPoints(DoubleArray value)");
+        assertThat(generatedCode).contains("this.points.clear().addAll(value);");
+        assertThat(generatedCode).contains("public SeriesBuilder addPoint(double value)");
+        assertThat(generatedCode).contains("this.points.add(value);");
+        assertThat(generatedCode).contains("return new Series(points.build());");
+    }
+
+    @Test
+    void testFlattenedRepeatedMessages() {
+        DescriptorProto message = DescriptorProto.newBuilder()
+                .setName("Order")
+                .addField(FieldDescriptorProto.newBuilder()
+                        .setNumber(1)
+                        .setName("items")
+                        .setLabel(FieldDescriptorProto.Label.LABEL_REPEATED)
+                        .setType(FieldDescriptorProto.Type.TYPE_MESSAGE)
+                        .setTypeName(".com.example.LineItem")
+                        .build())
+                .build();
+
+        String generatedCode = new BuilderGenerator("com.example", message,
+                GeneratorOptions.parse("flatten_repeated_messages")).generate();
+
+        assertThat(generatedCode).contains("private final LineItemArray.Builder items = LineItemArray.newBuilder();");
+        assertThat(generatedCode).contains("public OrderBuilder setItems(LineItemArray value)");
+        assertThat(generatedCode).contains("this.items.add(value);");
+        assertThat(generatedCode).contains("return new Order(items.build());");
+    }
+
+    @Test
+    void testLazyStringsKeepRawBytes() {
+        DescriptorProto message = DescriptorProto.newBuilder()
+                .setName("Product")
+                .addField(field(1, "name", FieldDescriptorProto.Type.TYPE_STRING))
+                .build();
+
+        String generatedCode = new BuilderGenerator("com.example", message,
+                GeneratorOptions.parse("lazy_strings")).generate();
+
+        assertThat(generatedCode).contains("private ByteString name = ByteString.EMPTY;");
+        assertThat(generatedCode).contains("this.name = original.getNameBytes();");
+        assertThat(generatedCode).contains("public ProductBuilder setName(String value)");
+        assertThat(generatedCode).contains("this.name = ByteString.copyFromUtf8(value);");
+        assertThat(generatedCode).contains("return name.toStringUtf8();");
+        assertThat(generatedCode).contains("return new Product(name);");
+    }
+
+    @Test
+    void testLazyMessagesKeepTheirHolder() {
+        DescriptorProto message = DescriptorProto.newBuilder()
+                .setName("Envelope")
+                .addField(FieldDescriptorProto.newBuilder()
+                        .setNumber(1)
+                        .setName("payload")
+                        .setType(FieldDescriptorProto.Type.TYPE_MESSAGE)
+                        .setTypeName(".com.example.Payload")
+                        .build())
+                .build();
+
+        String generatedCode = new BuilderGenerator("com.example", message,
+                GeneratorOptions.parse("lazy_messages")).generate();
+
+        // toBuilder().build() passes untouched payloads through without decoding them
+        assertThat(generatedCode).contains("private LazyMessage<Payload> payload = null;");
+        assertThat(generatedCode).contains("this.payload = original.getPayloadLazy();");
+        assertThat(generatedCode).contains("public EnvelopeBuilder setPayload(Payload value) {\n"
+                + "        this.payload = value == null ? null : LazyMessage.of(value);");
+        assertThat(generatedCode).contains("return payload == null ? null : payload.get();");
+        assertThat(generatedCode).contains("return new Envelope(payload, presenceBits);");
+    }
+
+    @Test
+    void testEnumSetters() {
+        DescriptorProto message = DescriptorProto.newBuilder()
+                .setName("Order")
+                .addField(field(1, "status", FieldDescriptorProto.Type.TYPE_ENUM).toBuilder()
+                        .setTypeName(".com.example.Status").build())
+                .addField(field(2, "flags", FieldDescriptorProto.Type.TYPE_ENUM).toBuilder()
+                        .setLabel(FieldDescriptorProto.Label.LABEL_REPEATED)
+                        .setTypeName(".com.example.Flag").build())
+                .build();
+
+        String generatedCode = new BuilderGenerator("com.example", message).generate();
+
+        assertThat(generatedCode).contains("private int status = 0;");
+        assertThat(generatedCode).contains("public OrderBuilder setStatus(Status value) {");
+        assertThat(generatedCode).contains("this.status = value.getNumber();");
+        assertThat(generatedCode).contains("public OrderBuilder setStatusValue(int value)");
+        assertThat(generatedCode).contains("this.status = original.getStatusValue();");
+        assertThat(generatedCode).contains("public OrderBuilder addFlag(Flag value) {");
+        assertThat(generatedCode).contains("this.flags.add(value.getNumber());");
+        assertThat(generatedCode).contains("public OrderBuilder addFlagValue(int value)");
+    }
+
+    @Test
+    void testOneofSetters() {
+        DescriptorProto message = DescriptorProto.newBuilder()
+                .setName("Event")
+                .addField(field(1, "text", FieldDescriptorProto.Type.TYPE_STRING).toBuilder()
+                        .setOneofIndex(0).build())
+                .addField(field(2, "count", FieldDescriptorProto.Type.TYPE_INT32).toBuilder()
+                        .setOneofIndex(0).build())
+                .addOneofDecl(OneofDescriptorProto.newBuilder().setName("payload").build())
+                .build();
+
+        String generatedCode = new BuilderGenerator("com.example", message).generate();
+
+        assertThat(generatedCode).contains("private int payloadCase = 0;");
+        assertThat(generatedCode).contains("this.payloadCase = 2;");
+        assertThat(generatedCode).contains("this.payloadBits = value;");
+        assertThat(generatedCode).contains("this.payloadRef = null;");
+        assertThat(generatedCode).contains("public EventBuilder clearPayload()");
+        assertThat(generatedCode).contains("public Event.PayloadCase getPayloadCase()");
+        // The copy constructor fills the slots itself instead of calling the setters
+        assertThat(generatedCode).contains("if (original.hasText()) {\n"
+                + "            this.payloadCase = 1;\n"
+                + "            this.payloadRef = original.getText();\n"
+                + "        }");
+        assertThat(generatedCode).contains("this.payloadBits = original.getCount();");
+        assertThat(generatedCode).doesNotContain("setText(original.getText());");
+        assertThat(generatedCode).contains("return new Event(payloadCase, payloadBits, payloadRef);");
+    }
+
+    @Test
+    void testPresenceSetters() {
+        DescriptorProto message = DescriptorProto.newBuilder()
+                .setName("Reading")
+                .addField(field(1, "value", FieldDescriptorProto.Type.TYPE_DOUBLE).toBuilder()
+                        .setProto3Optional(true).setOneofIndex(0).build())
+                .addField(field(2, "sensor", FieldDescriptorProto.Type.TYPE_MESSAGE).toBuilder()
+                        .setTypeName(".com.example.Sensor").build())
+                .addOneofDecl(OneofDescriptorProto.newBuilder().setName("_value"))
+                .build();
+
+        String generatedCode = new BuilderGenerator("com.example", message).generate();
+
+        assertThat(generatedCode).contains("private int presenceBits = 0;");
+        assertThat(generatedCode).contains("if (original.hasValue()) {\n            this.presenceBits |= (1 << 0);");
+        assertThat(generatedCode).contains("this.value = value;\n        this.presenceBits |= (1 << 0);");
+        assertThat(generatedCode).contains("this.presenceBits &= ~(1 << 1);");
+        assertThat(generatedCode).contains("public boolean hasValue()");
+        assertThat(generatedCode).contains("public ReadingBuilder clearValue() {\n        this.value = 0.0;");
+        assertThat(generatedCode).contains("return new Reading(value, sensor, presenceBits);");
+    }
+
+    @Test
+    void testMapSetters() {
+        DescriptorProto message = DescriptorProto.newBuilder()
+                .setName("Stats")
+                .addField(field(1, "items", FieldDescriptorProto.Type.TYPE_MESSAGE).toBuilder()
+                        .setLabel(FieldDescriptorProto.Label.LABEL_REPEATED)
+                        .setTypeName(".com.example.Stats.ItemsEntry").build())
+                .addNestedType(DescriptorProto.newBuilder()
+                        .setName("ItemsEntry")
+                        .setOptions(MessageOptions.newBuilder().setMapEntry(true).build())
+                        .addField(field(1, "key", FieldDescriptorProto.Type.TYPE_INT32))
+                        .addField(field(2, "value", FieldDescriptorProto.Type.TYPE_MESSAGE).toBuilder()
+                                .setTypeName(".com.example.Item").build()))
+                .build();
+
+        String generatedCode = new BuilderGenerator("com.example", message).generate();
+
+        assertThat(generatedCode).contains("private final IntObjectMap.Builder<Item> items = IntObjectMap.newBuilder();");
+        assertThat(generatedCode).contains("this.items.putAll(original.getItems());");
+        assertThat(generatedCode).contains("public StatsBuilder setItems(IntObjectMap<Item> value)");
+        assertThat(generatedCode).contains("public StatsBuilder putItems(int key, Item value)");
+        assertThat(generatedCode).contains("public StatsBuilder removeItems(int key)");
+        assertThat(generatedCode).contains("return new Stats(items.build());");
+    }
+
     private FieldDescriptorProto field(int number, String name, FieldDescriptorProto.Type type) {
         return FieldDescriptorProto.newBuilder()
                 .setNumber(number)
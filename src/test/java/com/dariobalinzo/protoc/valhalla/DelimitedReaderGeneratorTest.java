@@ -0,0 +1,37 @@
+package com.dariobalinzo.protoc.valhalla;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DelimitedReaderGeneratorTest {
+
+    @Test
+    void testGenerateDelimitedReader() {
+        var generator = new DelimitedReaderGenerator("com.example");
+        String generatedCode = generator.generate();
+
+        assertThat(generator.getClassName()).isEqualTo("DelimitedReader");
+        assertThat(generatedCode).contains("package com.example;");
+        assertThat(generatedCode).contains("public final class DelimitedReader<T> implements Iterator<T>, Closeable");
+        assertThat(generatedCode).contains("T parseFrom(byte[] data, int offset, int length) throws IOException;");
+        assertThat(generatedCode).contains("public static <T> DelimitedReader<T> of(InputStream input, Parser<T> parser)");
+        assertThat(generatedCode).contains("public static <T> DelimitedReader<T> of(ReadableByteChannel channel, Parser<T> parser)");
+        // Messages are decoded in place from the shared buffer
+        assertThat(generatedCode).contains("T value = parser.parseFrom(buffer, pos, size);");
+        assertThat(generatedCode).contains("public Stream<T> stream()");
+    }
+
+    @Test
+    void testLengthPrefixIsCheckedAgainstSizeLimit() {
+        String generatedCode = new DelimitedReaderGenerator("com.example").generate();
+
+        assertThat(generatedCode).contains("public static final int DEFAULT_SIZE_LIMIT = 64 << 20;");
+        assertThat(generatedCode).contains("public int setSizeLimit(int limit)");
+        // The size is rejected in readSize, before fill(size) can grow the buffer
+        assertThat(generatedCode).contains("Protocol message was too large.  May be malicious.  "
+                + "Use DelimitedReader.setSizeLimit() to increase the size limit.");
+        assertThat(generatedCode.indexOf("if (size > sizeLimit)"))
+                .isLessThan(generatedCode.indexOf("private boolean fill(int n)"));
+    }
+}
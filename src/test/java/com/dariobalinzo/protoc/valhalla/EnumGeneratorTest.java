@@ -0,0 +1,56 @@
+package com.dariobalinzo.protoc.valhalla;
+
+import com.google.protobuf.DescriptorProtos.EnumDescriptorProto;
+import com.google.protobuf.DescriptorProtos.EnumOptions;
+import com.google.protobuf.DescriptorProtos.EnumValueDescriptorProto;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EnumGeneratorTest {
+
+    @Test
+    void testGenerateDenseEnum() {
+        EnumDescriptorProto enumType = EnumDescriptorProto.newBuilder()
+                .setName("Status")
+                .setOptions(EnumOptions.newBuilder().setAllowAlias(true))
+                .addValue(value("STATUS_UNKNOWN", 0))
+                .addValue(value("ACTIVE", 1))
+                .addValue(value("ENABLED", 1))
+                .addValue(value("DELETED", 3))
+                .build();
+
+        var generator = new EnumGenerator("com.example", enumType);
+        String generatedCode = generator.generate();
+
+        assertThat(generator.getClassName()).isEqualTo("Status");
+        assertThat(generatedCode).contains("package com.example;");
+        assertThat(generatedCode).contains("public enum Status {");
+        assertThat(generatedCode).contains("STATUS_UNKNOWN(0),");
+        assertThat(generatedCode).contains("DELETED(3),");
+        assertThat(generatedCode).contains("UNRECOGNIZED(-1);");
+        // Aliases share the first constant with their number
+        assertThat(generatedCode).contains("public static final Status ENABLED = ACTIVE;");
+        assertThat(generatedCode).contains("private static final Status[] BY_NUMBER = new Status[4];");
+        assertThat(generatedCode).contains("return index >= 0 && index < BY_NUMBER.length ? BY_NUMBER[index] : null;");
+    }
+
+    @Test
+    void testGenerateSparseEnum() {
+        EnumDescriptorProto enumType = EnumDescriptorProto.newBuilder()
+                .setName("Code")
+                .addValue(value("OK", 0))
+                .addValue(value("FAR", 100000))
+                .build();
+
+        String generatedCode = new EnumGenerator("com.example", enumType).generate();
+
+        assertThat(generatedCode).doesNotContain("BY_NUMBER");
+        assertThat(generatedCode).contains("case 100000:");
+        assertThat(generatedCode).contains("return FAR;");
+    }
+
+    private EnumValueDescriptorProto value(String name, int number) {
+        return EnumValueDescriptorProto.newBuilder().setName(name).setNumber(number).build();
+    }
+}
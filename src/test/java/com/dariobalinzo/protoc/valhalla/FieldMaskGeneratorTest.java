@@ -0,0 +1,38 @@
+package com.dariobalinzo.protoc.valhalla;
+
+import com.google.protobuf.DescriptorProtos.DescriptorProto;
+import com.google.protobuf.DescriptorProtos.FieldDescriptorProto;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FieldMaskGeneratorTest {
+
+    @Test
+    void testGenerateFieldMask() {
+        DescriptorProto message = DescriptorProto.newBuilder()
+                .setName("Product")
+                .addField(field(1, "sku", FieldDescriptorProto.Type.TYPE_STRING))
+                .addField(field(2, "unitPrice", FieldDescriptorProto.Type.TYPE_DOUBLE))
+                .addField(field(7, "stock_count", FieldDescriptorProto.Type.TYPE_INT32))
+                .build();
+
+        var generator = new FieldMaskGenerator("com.example", message);
+        String generatedCode = generator.generate();
+
+        assertThat(generator.getClassName()).isEqualTo("ProductFields");
+        assertThat(generatedCode).contains("package com.example;");
+        assertThat(generatedCode).contains("public final class ProductFields");
+        assertThat(generatedCode).contains("public static final long SKU = 1L << 0;");
+        assertThat(generatedCode).contains("public static final long UNIT_PRICE = 1L << 1;");
+        assertThat(generatedCode).contains("public static final long STOCK_COUNT = 1L << 2;");
+    }
+
+    private FieldDescriptorProto field(int number, String name, FieldDescriptorProto.Type type) {
+        return FieldDescriptorProto.newBuilder()
+                .setNumber(number)
+                .setName(name)
+                .setType(type)
+                .build();
+    }
+}
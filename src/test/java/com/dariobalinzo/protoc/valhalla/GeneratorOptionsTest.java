@@ -0,0 +1,41 @@
+package com.dariobalinzo.protoc.valhalla;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class GeneratorOptionsTest {
+
+    @Test
+    void testDefaults() {
+        assertThat(GeneratorOptions.defaults().isMemoizeSize()).isFalse();
+        assertThat(GeneratorOptions.parse("").isMemoizeSize()).isFalse();
+        assertThat(GeneratorOptions.parse(null).isMemoizeSize()).isFalse();
+        assertThat(GeneratorOptions.defaults().isFlattenRepeatedMessages()).isFalse();
+    }
+
+    @Test
+    void testParse() {
+        assertThat(GeneratorOptions.parse("memoize_size").isMemoizeSize()).isTrue();
+        assertThat(GeneratorOptions.parse(" memoize_size , ").isMemoizeSize()).isTrue();
+
+        GeneratorOptions both = GeneratorOptions.parse("memoize_size,flatten_repeated_messages");
+        assertThat(both.isMemoizeSize()).isTrue();
+        assertThat(both.isFlattenRepeatedMessages()).isTrue();
+        assertThat(both.isLazyStrings()).isFalse();
+        assertThat(GeneratorOptions.parse("lazy_strings").isLazyStrings()).isTrue();
+        assertThat(GeneratorOptions.parse("lazy_messages").isLazyMessages()).isTrue();
+        assertThat(GeneratorOptions.parse("lazy_strings").isLazyMessages()).isFalse();
+        assertThat(GeneratorOptions.parse("standalone_reader").isStandaloneReader()).isTrue();
+        assertThat(GeneratorOptions.parse("standalone_reader").isStandaloneWriter()).isFalse();
+        assertThat(GeneratorOptions.parse("standalone_writer").isStandaloneWriter()).isTrue();
+    }
+
+    @Test
+    void testUnknownOption() {
+        assertThatThrownBy(() -> GeneratorOptions.parse("memoize_size,fast"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Unknown option: fast");
+    }
+}
@@ -0,0 +1,23 @@
+package com.dariobalinzo.protoc.valhalla;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LazyMessageGeneratorTest {
+
+    @Test
+    void testGenerateLazyMessage() {
+        var generator = new LazyMessageGenerator("com.example");
+        String generatedCode = generator.generate();
+
+        assertThat(generator.getClassName()).isEqualTo("LazyMessage");
+        assertThat(generatedCode).contains("package com.example;");
+        assertThat(generatedCode).contains("public final class LazyMessage<T>");
+        assertThat(generatedCode).contains("public static <T> LazyMessage<T> ofBytes(ByteString bytes, int depth, Parser<T> parser)");
+        assertThat(generatedCode).contains("public static <T> LazyMessage<T> of(T value)");
+        assertThat(generatedCode).contains("result = parser.parseFrom(bytes.newCodedInput(), depth);");
+        assertThat(generatedCode).contains("T parseFrom(CodedInputStream input, int depth) throws IOException;");
+        assertThat(generatedCode).contains("public boolean hasBytes()");
+    }
+}
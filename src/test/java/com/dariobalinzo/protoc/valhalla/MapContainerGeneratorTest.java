@@ -0,0 +1,45 @@
+package com.dariobalinzo.protoc.valhalla;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MapContainerGeneratorTest {
+
+    @Test
+    void testGeneratePrimitiveMap() {
+        var generator = new MapContainerGenerator("com.example", "int", "long");
+        String generatedCode = generator.generate();
+
+        assertThat(generator.getClassName()).isEqualTo("IntLongMap");
+        assertThat(generatedCode).contains("package com.example;");
+        assertThat(generatedCode).contains("public value class IntLongMap {");
+        assertThat(generatedCode).contains("private final int[] keys;");
+        assertThat(generatedCode).contains("private final long[] values;");
+        assertThat(generatedCode).contains("private final int[] table;");
+        assertThat(generatedCode).contains("public long getOrDefault(int key, long defaultValue)");
+        assertThat(generatedCode).contains("public long getOrThrow(int key)");
+        assertThat(generatedCode).contains("public Map<Integer, Long> toMap()");
+        assertThat(generatedCode).contains("return Integer.hashCode(key);");
+        assertThat(generatedCode).contains("public Builder put(int key, long value)");
+        assertThat(generatedCode).contains("public IntLongMap build()");
+        assertThat(generatedCode).doesNotContain("requireNonNull");
+    }
+
+    @Test
+    void testGenerateObjectMap() {
+        var generator = new MapContainerGenerator("com.example", "String", "Object");
+        String generatedCode = generator.generate();
+
+        assertThat(generator.getClassName()).isEqualTo("StringObjectMap");
+        assertThat(generatedCode).contains("public value class StringObjectMap<V> {");
+        assertThat(generatedCode).contains("private final Object[] values;");
+        assertThat(generatedCode).contains("public static <V> StringObjectMap<V> of()");
+        assertThat(generatedCode).contains("public V get(String key)");
+        assertThat(generatedCode).contains("return (V) values[index];");
+        assertThat(generatedCode).contains("return a.equals(b);");
+        assertThat(generatedCode).contains("Objects.requireNonNull(key);");
+        assertThat(generatedCode).contains("Objects.requireNonNull(value);");
+        assertThat(generatedCode).contains("Arrays.fill(values, 0, size, null);");
+    }
+}
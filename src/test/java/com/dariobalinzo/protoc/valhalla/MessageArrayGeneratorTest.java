@@ -0,0 +1,25 @@
+package com.dariobalinzo.protoc.valhalla;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MessageArrayGeneratorTest {
+
+    @Test
+    void testGenerateMessageArray() {
+        var generator = new MessageArrayGenerator("com.example", "LineItem");
+        String generatedCode = generator.generate();
+
+        assertThat(generator.getClassName()).isEqualTo("LineItemArray");
+        assertThat(generatedCode).contains("package com.example;");
+        assertThat(generatedCode).contains("public value class LineItemArray implements Iterable<LineItem>");
+        assertThat(generatedCode).contains("private final LineItem[] elements;");
+        assertThat(generatedCode).contains("public LineItem get(int index)");
+        assertThat(generatedCode).contains("public Stream<LineItem> stream()");
+        assertThat(generatedCode).contains("public List<LineItem> asList()");
+        assertThat(generatedCode).contains("public static final class Builder");
+        assertThat(generatedCode).contains("Objects.requireNonNull(value);");
+        assertThat(generatedCode).contains("public LineItemArray build()");
+    }
+}
@@ -0,0 +1,38 @@
+package com.dariobalinzo.protoc.valhalla;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PrimitiveArrayGeneratorTest {
+
+    @Test
+    void testGenerateIntArray() {
+        var generator = new PrimitiveArrayGenerator("com.example", "int");
+        String generatedCode = generator.generate();
+
+        assertThat(generator.getClassName()).isEqualTo("IntArray");
+        assertThat(generatedCode).contains("package com.example;");
+        assertThat(generatedCode).contains("public value class IntArray");
+        assertThat(generatedCode).contains("private final int[] elements;");
+        assertThat(generatedCode).contains("public static IntArray of(int... values)");
+        assertThat(generatedCode).contains("public int get(int index)");
+        assertThat(generatedCode).contains("public int size()");
+        assertThat(generatedCode).contains("public IntStream stream()");
+        assertThat(generatedCode).contains("public static final class Builder");
+        assertThat(generatedCode).contains("public Builder add(int value)");
+        assertThat(generatedCode).contains("public IntArray build()");
+    }
+
+    @Test
+    void testStreamTypes() {
+        assertThat(new PrimitiveArrayGenerator("com.example", "float").generate())
+                .contains("public DoubleStream stream()")
+                .contains("mapToDouble(i -> elements[i])");
+        assertThat(new PrimitiveArrayGenerator("com.example", "long").generate())
+                .contains("public LongStream stream()");
+        assertThat(new PrimitiveArrayGenerator("com.example", "boolean").generate())
+                .contains("public value class BooleanArray")
+                .doesNotContain("stream()");
+    }
+}
@@ -1,11 +1,16 @@
 package com.dariobalinzo.protoc.valhalla;
 
+import com.google.protobuf.DescriptorProtos;
 import com.google.protobuf.DescriptorProtos.FieldDescriptorProto;
 import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
 import com.google.protobuf.DescriptorProtos.FileOptions;
 import org.junit.jupiter.api.Test;
 
+import java.util.List;
+import java.util.Map;
+
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 class ProtoUtilsTest {
 
@@ -20,7 +25,53 @@ class ProtoUtilsTest {
                 .setLabel(FieldDescriptorProto.Label.LABEL_REPEATED)
                 .setType(FieldDescriptorProto.Type.TYPE_INT32)
                 .build();
-        assertThat(ProtoUtils.getJavaType(repeatedField)).isEqualTo("List<Integer>");
+        assertThat(ProtoUtils.getJavaType(repeatedField)).isEqualTo("IntArray");
+
+        FieldDescriptorProto repeatedString = FieldDescriptorProto.newBuilder()
+                .setLabel(FieldDescriptorProto.Label.LABEL_REPEATED)
+                .setType(FieldDescriptorProto.Type.TYPE_STRING)
+                .build();
+        assertThat(ProtoUtils.getJavaType(repeatedString)).isEqualTo("List<String>");
+    }
+
+    @Test
+    void testGetPrimitiveArrayType() {
+        assertThat(ProtoUtils.getPrimitiveArrayType("int")).isEqualTo("IntArray");
+        assertThat(ProtoUtils.getPrimitiveArrayType("boolean")).isEqualTo("BooleanArray");
+        assertThat(ProtoUtils.isPrimitive("double")).isTrue();
+        assertThat(ProtoUtils.isPrimitive("String")).isFalse();
+    }
+
+    @Test
+    void testGetStorageType() {
+        GeneratorOptions lazy = GeneratorOptions.parse("lazy_strings");
+        FieldDescriptorProto name = field(FieldDescriptorProto.Type.TYPE_STRING);
+
+        assertThat(ProtoUtils.getStorageType(name, GeneratorOptions.defaults())).isEqualTo("String");
+        assertThat(ProtoUtils.getStorageType(name, lazy)).isEqualTo("ByteString");
+        assertThat(ProtoUtils.getJavaType(name, lazy)).isEqualTo("String");
+        assertThat(ProtoUtils.getDefaultValue(name, lazy)).isEqualTo("ByteString.EMPTY");
+        assertThat(ProtoUtils.getReadExpression(name, lazy)).isEqualTo("input.readBytes()");
+    }
+
+    @Test
+    void testLazyMessageField() {
+        GeneratorOptions lazy = GeneratorOptions.parse("lazy_messages");
+        FieldDescriptorProto payload = FieldDescriptorProto.newBuilder()
+                .setType(FieldDescriptorProto.Type.TYPE_MESSAGE)
+                .setTypeName(".com.example.Payload")
+                .build();
+        FieldDescriptorProto payloads = payload.toBuilder()
+                .setLabel(FieldDescriptorProto.Label.LABEL_REPEATED)
+                .build();
+
+        assertThat(ProtoUtils.isLazyMessageField(payload, lazy)).isTrue();
+        assertThat(ProtoUtils.isLazyMessageField(payloads, lazy)).isFalse();
+        assertThat(ProtoUtils.isLazyMessageField(payload, GeneratorOptions.defaults())).isFalse();
+        assertThat(ProtoUtils.getStorageType(payload, lazy)).isEqualTo("LazyMessage<Payload>");
+        assertThat(ProtoUtils.getJavaType(payload, lazy)).isEqualTo("Payload");
+        assertThat(ProtoUtils.getReadExpression(payload, lazy))
+                .isEqualTo("LazyMessage.ofBytes(input.readBytes(), $depth, Payload::parseNested)");
     }
 
     @Test
@@ -49,13 +100,20 @@ class ProtoUtilsTest {
         assertThat(ProtoUtils.getDefaultValue(field(FieldDescriptorProto.Type.TYPE_STRING))).isEqualTo("\"\"");
         assertThat(ProtoUtils.getDefaultValue(field(FieldDescriptorProto.Type.TYPE_BYTES))).isEqualTo("ByteString.EMPTY");
         assertThat(ProtoUtils.getDefaultValue(field(FieldDescriptorProto.Type.TYPE_MESSAGE))).isEqualTo("null");
-        assertThat(ProtoUtils.getDefaultValue(field(FieldDescriptorProto.Type.TYPE_ENUM))).isEqualTo("null");
+        assertThat(ProtoUtils.getDefaultValue(field(FieldDescriptorProto.Type.TYPE_ENUM))).isEqualTo("0");
 
         FieldDescriptorProto repeatedField = FieldDescriptorProto.newBuilder()
                 .setLabel(FieldDescriptorProto.Label.LABEL_REPEATED)
                 .setType(FieldDescriptorProto.Type.TYPE_INT32)
                 .build();
-        assertThat(ProtoUtils.getDefaultValue(repeatedField)).isEqualTo("List.of()");
+        assertThat(ProtoUtils.getDefaultValue(repeatedField)).isEqualTo("IntArray.of()");
+
+        FieldDescriptorProto repeatedMessage = FieldDescriptorProto.newBuilder()
+                .setLabel(FieldDescriptorProto.Label.LABEL_REPEATED)
+                .setType(FieldDescriptorProto.Type.TYPE_MESSAGE)
+                .setTypeName(".com.dariobalinzo.MyMessage")
+                .build();
+        assertThat(ProtoUtils.getDefaultValue(repeatedMessage)).isEqualTo("List.of()");
     }
 
     @Test
@@ -65,7 +123,7 @@ class ProtoUtilsTest {
                 .setType(FieldDescriptorProto.Type.TYPE_MESSAGE)
                 .setTypeName(".com.dariobalinzo.MyMessage")
                 .build();
-        assertThat(ProtoUtils.getReadExpression(messageField)).isEqualTo("MyMessage.parseFrom(input.readBytes().toByteArray())");
+        assertThat(ProtoUtils.getReadExpression(messageField)).isEqualTo("MyMessage.readNested(input, $depth)");
     }
 
     @Test
@@ -88,6 +146,7 @@ class ProtoUtilsTest {
         assertThat(ProtoUtils.getDefaultCheck(field(FieldDescriptorProto.Type.TYPE_BOOL, "myBool"))).isEqualTo("myBool");
         assertThat(ProtoUtils.getDefaultCheck(field(FieldDescriptorProto.Type.TYPE_STRING, "myString"))).isEqualTo("!myString.isEmpty()");
         assertThat(ProtoUtils.getDefaultCheck(field(FieldDescriptorProto.Type.TYPE_MESSAGE, "myMessage"))).isEqualTo("myMessage != null");
+        assertThat(ProtoUtils.getDefaultCheck(field(FieldDescriptorProto.Type.TYPE_STRING, "is"), "this.is")).isEqualTo("!this.is.isEmpty()");
     }
 
     @Test
@@ -101,6 +160,37 @@ class ProtoUtilsTest {
         assertThat(ProtoUtils.isRepeatedField(repeatedField)).isTrue();
     }
 
+    @Test
+    void testIsPacked() {
+        FieldDescriptorProto repeatedInt = FieldDescriptorProto.newBuilder()
+                .setLabel(FieldDescriptorProto.Label.LABEL_REPEATED)
+                .setType(FieldDescriptorProto.Type.TYPE_INT32)
+                .build();
+        assertThat(ProtoUtils.isPackable(repeatedInt)).isTrue();
+        assertThat(ProtoUtils.isPacked(repeatedInt)).isTrue();
+
+        FieldDescriptorProto unpackedInt = repeatedInt.toBuilder()
+                .setOptions(DescriptorProtos.FieldOptions.newBuilder().setPacked(false))
+                .build();
+        assertThat(ProtoUtils.isPackable(unpackedInt)).isTrue();
+        assertThat(ProtoUtils.isPacked(unpackedInt)).isFalse();
+
+        FieldDescriptorProto repeatedString = FieldDescriptorProto.newBuilder()
+                .setLabel(FieldDescriptorProto.Label.LABEL_REPEATED)
+                .setType(FieldDescriptorProto.Type.TYPE_STRING)
+                .build();
+        assertThat(ProtoUtils.isPackable(repeatedString)).isFalse();
+        assertThat(ProtoUtils.isPacked(field(FieldDescriptorProto.Type.TYPE_INT32))).isFalse();
+    }
+
+    @Test
+    void testGetFixedSize() {
+        assertThat(ProtoUtils.getFixedSize(field(FieldDescriptorProto.Type.TYPE_FLOAT))).isEqualTo(4);
+        assertThat(ProtoUtils.getFixedSize(field(FieldDescriptorProto.Type.TYPE_SFIXED64))).isEqualTo(8);
+        assertThat(ProtoUtils.getFixedSize(field(FieldDescriptorProto.Type.TYPE_BOOL))).isEqualTo(1);
+        assertThat(ProtoUtils.getFixedSize(field(FieldDescriptorProto.Type.TYPE_INT32))).isEqualTo(0);
+    }
+
     @Test
     void testCapitalize() {
         assertThat(ProtoUtils.capitalize("hello")).isEqualTo("Hello");
@@ -135,6 +225,213 @@ class ProtoUtilsTest {
     }
 
 
+    @Test
+    void testFieldMask() {
+        assertThat(ProtoUtils.getFieldMaskType("Product")).isEqualTo("ProductFields");
+        assertThat(ProtoUtils.getFieldMaskConstant(field(FieldDescriptorProto.Type.TYPE_INT32, "price"))).isEqualTo("PRICE");
+        assertThat(ProtoUtils.getFieldMaskConstant(field(FieldDescriptorProto.Type.TYPE_INT32, "unitPrice"))).isEqualTo("UNIT_PRICE");
+        assertThat(ProtoUtils.getFieldMaskConstant(field(FieldDescriptorProto.Type.TYPE_INT32, "unit_price"))).isEqualTo("UNIT_PRICE");
+
+        DescriptorProtos.DescriptorProto.Builder wide = DescriptorProtos.DescriptorProto.newBuilder();
+        assertThat(ProtoUtils.hasFieldMask(wide.build())).isFalse();
+        for (int i = 1; i <= 64; i++) {
+            wide.addField(field(FieldDescriptorProto.Type.TYPE_INT32, "f" + i));
+        }
+        assertThat(ProtoUtils.hasFieldMask(wide.build())).isTrue();
+        wide.addField(field(FieldDescriptorProto.Type.TYPE_INT32, "f65"));
+        assertThat(ProtoUtils.hasFieldMask(wide.build())).isFalse();
+    }
+
+    @Test
+    void testGetVarintBytes() {
+        assertThat(ProtoUtils.getVarintBytes(8)).containsExactly((byte) 8);
+        assertThat(ProtoUtils.getVarintBytes(300)).containsExactly((byte) 0xAC, (byte) 0x02);
+        assertThat(ProtoUtils.getVarintBytes(24000)).containsExactly((byte) 0xC0, (byte) 0xBB, (byte) 0x01);
+    }
+
+    @Test
+    void testIsFixedLayout() {
+        DescriptorProtos.DescriptorProto tick = DescriptorProtos.DescriptorProto.newBuilder()
+                .addField(field(FieldDescriptorProto.Type.TYPE_DOUBLE, "bid"))
+                .addField(field(FieldDescriptorProto.Type.TYPE_FIXED32, "venue"))
+                .addField(field(FieldDescriptorProto.Type.TYPE_BOOL, "live"))
+                .build();
+        assertThat(ProtoUtils.isFixedLayout(tick)).isTrue();
+        assertThat(ProtoUtils.isFixedLayout(tick.toBuilder()
+                .addField(field(FieldDescriptorProto.Type.TYPE_INT32, "count"))
+                .build())).isFalse();
+        assertThat(ProtoUtils.isFixedLayout(tick.toBuilder()
+                .addField(field(FieldDescriptorProto.Type.TYPE_DOUBLE, "history").toBuilder()
+                        .setLabel(FieldDescriptorProto.Label.LABEL_REPEATED))
+                .build())).isFalse();
+        assertThat(ProtoUtils.isFixedLayout(DescriptorProtos.DescriptorProto.getDefaultInstance())).isFalse();
+    }
+
+    @Test
+    void testEnumField() {
+        FieldDescriptorProto enumField = FieldDescriptorProto.newBuilder()
+                .setName("status")
+                .setType(FieldDescriptorProto.Type.TYPE_ENUM)
+                .setTypeName(".com.example.Status")
+                .build();
+        assertThat(ProtoUtils.isEnumField(enumField)).isTrue();
+        assertThat(ProtoUtils.getBaseJavaType(enumField)).isEqualTo("int");
+        assertThat(ProtoUtils.getEnumJavaType(enumField)).isEqualTo("Status");
+        assertThat(ProtoUtils.getAccessorName(enumField)).isEqualTo("StatusValue");
+        assertThat(ProtoUtils.getReadExpression(enumField)).isEqualTo("input.readEnum()");
+        assertThat(ProtoUtils.getWriteMethod(enumField)).isEqualTo("Enum");
+        assertThat(ProtoUtils.getDefaultCheck(enumField)).isEqualTo("status != 0");
+        assertThat(ProtoUtils.getAccessorName(field(FieldDescriptorProto.Type.TYPE_INT32, "count"))).isEqualTo("Count");
+    }
+
+    @Test
+    void testOneofMember() {
+        FieldDescriptorProto member = field(FieldDescriptorProto.Type.TYPE_FLOAT, "ratio").toBuilder()
+                .setOneofIndex(0).build();
+        FieldDescriptorProto optional = member.toBuilder().setProto3Optional(true).build();
+        assertThat(ProtoUtils.isOneofMember(member)).isTrue();
+        assertThat(ProtoUtils.isOneofMember(optional)).isFalse();
+        assertThat(ProtoUtils.encodeOneofValue(member, "value")).isEqualTo("Float.floatToRawIntBits(value)");
+        assertThat(ProtoUtils.decodeOneofValue(member, "bits")).isEqualTo("Float.intBitsToFloat((int) bits)");
+        assertThat(ProtoUtils.decodeOneofValue(field(FieldDescriptorProto.Type.TYPE_STRING, "text"), "ref"))
+                .isEqualTo("((String) ref)");
+    }
+
+    @Test
+    void testMapEntry() {
+        DescriptorProtos.DescriptorProto entry = DescriptorProtos.DescriptorProto.newBuilder()
+                .setName("FlagsEntry")
+                .setOptions(DescriptorProtos.MessageOptions.newBuilder().setMapEntry(true).build())
+                .addField(field(FieldDescriptorProto.Type.TYPE_BOOL, "key").toBuilder().setNumber(1).build())
+                .addField(field(FieldDescriptorProto.Type.TYPE_BYTES, "value").toBuilder().setNumber(2).build())
+                .build();
+        FieldDescriptorProto flags = field(FieldDescriptorProto.Type.TYPE_MESSAGE, "flags").toBuilder()
+                .setLabel(FieldDescriptorProto.Label.LABEL_REPEATED)
+                .setTypeName(".com.example.Holder.FlagsEntry")
+                .build();
+        DescriptorProtos.DescriptorProto holder = DescriptorProtos.DescriptorProto.newBuilder()
+                .setName("Holder")
+                .addField(flags)
+                .addNestedType(entry)
+                .build();
+
+        assertThat(ProtoUtils.getMapEntry(holder, flags)).isEqualTo(entry);
+        assertThat(ProtoUtils.isMapField(holder, field(FieldDescriptorProto.Type.TYPE_INT32, "id"))).isFalse();
+        // bool keys share the int-keyed container
+        assertThat(ProtoUtils.getMapKeyType(entry)).isEqualTo("int");
+        assertThat(ProtoUtils.getMapValueType(entry)).isEqualTo("Object");
+        assertThat(ProtoUtils.getMapType(entry)).isEqualTo("IntObjectMap<ByteString>");
+        assertThat(ProtoUtils.getDefaultValue(holder, flags, GeneratorOptions.defaults())).isEqualTo("IntObjectMap.of()");
+    }
+
+    @Test
+    void testPresenceSlots() {
+        DescriptorProtos.DescriptorProto.Builder builder = DescriptorProtos.DescriptorProto.newBuilder().setName("Wide");
+        for (int i = 0; i < 40; i++) {
+            builder.addField(field(FieldDescriptorProto.Type.TYPE_MESSAGE, "m" + i).toBuilder()
+                    .setNumber(i + 1).setTypeName(".com.example.Item").build());
+        }
+        builder.addField(field(FieldDescriptorProto.Type.TYPE_INT32, "plain").toBuilder().setNumber(41).build());
+        DescriptorProtos.DescriptorProto message = builder.build();
+
+        assertThat(ProtoUtils.hasPresenceBit(message.getField(0))).isTrue();
+        assertThat(ProtoUtils.hasPresenceBit(message.getField(40))).isFalse();
+        // Past 32 bits the mask becomes a long
+        assertThat(ProtoUtils.getPresenceSlots(message)).hasSize(1);
+        assertThat(ProtoUtils.getPresenceSlots(message).get(0).type).isEqualTo("long");
+        assertThat(ProtoUtils.getPresenceSlot(message, message.getField(35))).isEqualTo("presenceBits");
+        assertThat(ProtoUtils.getPresenceCheck(message, message.getField(35), "this."))
+                .isEqualTo("(this.presenceBits & (1L << 35)) != 0");
+        assertThat(ProtoUtils.isFixedLayout(DescriptorProtos.DescriptorProto.newBuilder()
+                .addField(field(FieldDescriptorProto.Type.TYPE_FIXED32, "a").toBuilder()
+                        .setProto3Optional(true).setOneofIndex(0).build())
+                .build())).isFalse();
+    }
+
+    @Test
+    void testFlattenNestedTypes() {
+        DescriptorProtos.DescriptorProto address = DescriptorProtos.DescriptorProto.newBuilder()
+                .setName("Address")
+                .build();
+        DescriptorProtos.DescriptorProto line = DescriptorProtos.DescriptorProto.newBuilder()
+                .setName("Line")
+                .addField(field(FieldDescriptorProto.Type.TYPE_MESSAGE, "ship").toBuilder()
+                        .setTypeName(".com.example.Order.Line.Address").build())
+                .addNestedType(address)
+                .build();
+        DescriptorProtos.DescriptorProto entry = DescriptorProtos.DescriptorProto.newBuilder()
+                .setName("LinesEntry")
+                .setOptions(DescriptorProtos.MessageOptions.newBuilder().setMapEntry(true).build())
+                .addField(field(FieldDescriptorProto.Type.TYPE_STRING, "key").toBuilder().setNumber(1).build())
+                .addField(field(FieldDescriptorProto.Type.TYPE_MESSAGE, "value").toBuilder().setNumber(2)
+                        .setTypeName(".com.example.Order.Line").build())
+                .build();
+        DescriptorProtos.DescriptorProto order = DescriptorProtos.DescriptorProto.newBuilder()
+                .setName("Order")
+                .addField(field(FieldDescriptorProto.Type.TYPE_ENUM, "status").toBuilder()
+                        .setTypeName(".com.example.Order.Status").build())
+                .addNestedType(line)
+                .addNestedType(entry)
+                .addEnumType(DescriptorProtos.EnumDescriptorProto.newBuilder().setName("Status"))
+                .build();
+        DescriptorProtos.FileDescriptorProto file = DescriptorProtos.FileDescriptorProto.newBuilder()
+                .setPackage("com.example")
+                .addMessageType(order)
+                .build();
+
+        Map<String, String> names = ProtoUtils.getNestedTypeNames(List.of(file));
+        assertThat(names).isEqualTo(Map.of(
+                ".com.example.Order.Line", ".com.example.Order_Line",
+                ".com.example.Order.Line.Address", ".com.example.Order_Line_Address",
+                ".com.example.Order.Status", ".com.example.Order_Status"));
+
+        DescriptorProtos.FileDescriptorProto flat = ProtoUtils.flattenNestedTypes(file, names);
+        assertThat(flat.getMessageTypeList())
+                .extracting(DescriptorProtos.DescriptorProto::getName)
+                .containsExactly("Order", "Order_Line", "Order_Line_Address");
+        assertThat(flat.getEnumTypeList())
+                .extracting(DescriptorProtos.EnumDescriptorProto::getName)
+                .containsExactly("Order_Status");
+        assertThat(flat.getMessageType(0).getField(0).getTypeName()).isEqualTo(".com.example.Order_Status");
+        assertThat(flat.getMessageType(1).getField(0).getTypeName()).isEqualTo(".com.example.Order_Line_Address");
+        // Map entries stay nested, with their value type renamed
+        assertThat(flat.getMessageType(0).getNestedTypeList())
+                .extracting(DescriptorProtos.DescriptorProto::getName)
+                .containsExactly("LinesEntry");
+        assertThat(flat.getMessageType(0).getNestedType(0).getField(1).getTypeName()).isEqualTo(".com.example.Order_Line");
+    }
+
+    @Test
+    void testHoistedNameClashIsRejected() {
+        DescriptorProtos.FileDescriptorProto file = DescriptorProtos.FileDescriptorProto.newBuilder()
+                .setPackage("com.example")
+                .addMessageType(DescriptorProtos.DescriptorProto.newBuilder()
+                        .setName("Order")
+                        .addNestedType(DescriptorProtos.DescriptorProto.newBuilder().setName("Line")))
+                .addMessageType(DescriptorProtos.DescriptorProto.newBuilder().setName("Order_Line"))
+                .build();
+
+        assertThatThrownBy(() -> ProtoUtils.getNestedTypeNames(List.of(file)))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Nested type com.example.Order.Line would be generated as com.example.Order_Line,"
+                        + " which clashes with com.example.Order_Line");
+
+        // Two nested paths flattening to the same name clash as well
+        DescriptorProtos.FileDescriptorProto nestedClash = DescriptorProtos.FileDescriptorProto.newBuilder()
+                .setPackage("com.example")
+                .addMessageType(DescriptorProtos.DescriptorProto.newBuilder()
+                        .setName("Order")
+                        .addNestedType(DescriptorProtos.DescriptorProto.newBuilder()
+                                .setName("Line")
+                                .addEnumType(DescriptorProtos.EnumDescriptorProto.newBuilder().setName("Kind")))
+                        .addEnumType(DescriptorProtos.EnumDescriptorProto.newBuilder().setName("Line_Kind")))
+                .build();
+
+        assertThatThrownBy(() -> ProtoUtils.getNestedTypeNames(List.of(nestedClash)))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("would be generated as com.example.Order_Line_Kind");
+    }
+
     @Test
     void testGetJavaPackage() {
         FileDescriptorProto fileWithOption = FileDescriptorProto.newBuilder()
@@ -0,0 +1,28 @@
+package com.dariobalinzo.protoc.valhalla;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SegmentReaderGeneratorTest {
+
+    @Test
+    void testGenerateSegmentReader() {
+        var generator = new SegmentReaderGenerator("com.example");
+        String generatedCode = generator.generate();
+
+        assertThat(generator.getClassName()).isEqualTo("SegmentReader");
+        assertThat(generatedCode).contains("package com.example;");
+        assertThat(generatedCode).contains("public final class SegmentReader");
+        assertThat(generatedCode).contains("public SegmentReader(MemorySegment segment)");
+        assertThat(generatedCode).contains("ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);");
+        assertThat(generatedCode).contains("int value = segment.get(INT_LE, pos);");
+        assertThat(generatedCode).contains("byte b = segment.get(ValueLayout.JAVA_BYTE, p++);");
+        assertThat(generatedCode).contains("MemorySegment.copy(segment, ValueLayout.JAVA_BYTE, pos, bytes, 0, length);");
+        assertThat(generatedCode).contains("public int pushLimit(int length)");
+        assertThat(generatedCode).contains("public boolean skipField(int tag)");
+        assertThat(generatedCode).contains("public int readRawVarint32()");
+        assertThat(generatedCode).contains("public long readRawVarint64()");
+        assertThat(generatedCode).doesNotContain("asByteBuffer");
+    }
+}
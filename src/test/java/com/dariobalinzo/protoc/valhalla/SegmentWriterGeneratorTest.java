@@ -0,0 +1,25 @@
+package com.dariobalinzo.protoc.valhalla;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SegmentWriterGeneratorTest {
+
+    @Test
+    void testGenerateSegmentWriter() {
+        var generator = new SegmentWriterGenerator("com.example");
+        String generatedCode = generator.generate();
+
+        assertThat(generator.getClassName()).isEqualTo("SegmentWriter");
+        assertThat(generatedCode).contains("package com.example;");
+        assertThat(generatedCode).contains("public final class SegmentWriter");
+        assertThat(generatedCode).contains("public SegmentWriter(MemorySegment segment)");
+        assertThat(generatedCode).contains("segment.set(INT_LE, pos, value);");
+        assertThat(generatedCode).contains("segment.set(LONG_LE, pos, value);");
+        assertThat(generatedCode).contains("public void writeRawShort(short value)");
+        assertThat(generatedCode).contains("public void writeSInt64NoTag(long value)");
+        assertThat(generatedCode).contains("public void writeStringNoTag(String value)");
+        assertThat(generatedCode).contains("public void writeBytesNoTag(ByteString value)");
+    }
+}
@@ -2,6 +2,8 @@ package com.dariobalinzo.protoc.valhalla;
 
 import com.google.protobuf.DescriptorProtos.DescriptorProto;
 import com.google.protobuf.DescriptorProtos.FieldDescriptorProto;
+import com.google.protobuf.DescriptorProtos.MessageOptions;
+import com.google.protobuf.DescriptorProtos.OneofDescriptorProto;
 import org.junit.jupiter.api.Test;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -32,10 +34,708 @@ class ValueClassGeneratorTest {
         assertThat(generatedCode).contains("public PersonBuilder toBuilder()");
         assertThat(generatedCode).contains("public static Person parseFrom(byte[] data)");
         assertThat(generatedCode).contains("public byte[] toByteArray()");
+        assertThat(generatedCode).contains("byte[] result = new byte[getSerializedSize()];");
+        assertThat(generatedCode).contains("public int writeTo(byte[] dst, int offset)");
+        assertThat(generatedCode).doesNotContain("ByteArrayOutputStream");
         assertThat(generatedCode).contains("public void writeTo(CodedOutputStream output)");
         assertThat(generatedCode).contains("public int getSerializedSize()");
     }
 
+    @Test
+    void testParseFromByteBuffer() {
+        DescriptorProto message = DescriptorProto.newBuilder()
+                .setName("Packet")
+                .addField(field(1, "payload", FieldDescriptorProto.Type.TYPE_BYTES))
+                .build();
+
+        String generatedCode = new ValueClassGenerator("com.example", message).generate();
+
+        assertThat(generatedCode).contains("import java.nio.ByteBuffer;");
+        assertThat(generatedCode).contains("public static Packet parseFrom(ByteBuffer data)");
+        assertThat(generatedCode).contains("CodedInputStream input = CodedInputStream.newInstance(data);");
+        assertThat(generatedCode).contains("public static Packet parseFromAliasing(ByteBuffer data)");
+        assertThat(generatedCode).contains("UnsafeByteOperations.unsafeWrap(data).newCodedInput();");
+        assertThat(generatedCode).contains("input.enableAliasing(true);");
+    }
+
+    @Test
+    void testParseFromSubRange() {
+        DescriptorProto message = DescriptorProto.newBuilder()
+                .setName("Frame")
+                .addField(field(1, "seq", FieldDescriptorProto.Type.TYPE_INT64))
+                .build();
+
+        String generatedCode = new ValueClassGenerator("com.example", message).generate();
+
+        assertThat(generatedCode).contains("return parseFrom(data, 0, data.length);");
+        assertThat(generatedCode).contains("public static Frame parseFrom(byte[] data, int offset, int length) throws IOException");
+        assertThat(generatedCode).contains("CodedInputStream input = CodedInputStream.newInstance(data, offset, length);");
+    }
+
+    @Test
+    void testBulkParse() {
+        DescriptorProto message = DescriptorProto.newBuilder()
+                .setName("Frame")
+                .addField(field(1, "seq", FieldDescriptorProto.Type.TYPE_INT64))
+                .build();
+
+        String generatedCode = new ValueClassGenerator("com.example", message).generate();
+
+        assertThat(generatedCode).contains("public static void parseAll(byte[][] inputs, Frame[] dest) throws IOException");
+        assertThat(generatedCode).contains("public static void parseAll(List<ByteBuffer> inputs, Frame[] dest) throws IOException");
+        assertThat(generatedCode).contains("Objects.checkFromIndexSize(0, inputs.length, dest.length);");
+        assertThat(generatedCode).contains("dest[i] = parseFrom(inputs[i]);");
+
+        String standaloneCode = new ValueClassGenerator("com.example", message,
+                GeneratorOptions.parse("standalone_reader")).generate();
+        // One reader for the whole batch
+        assertThat(standaloneCode).contains("WireReader reader = new WireReader();");
+        assertThat(standaloneCode).contains("dest[i] = parseFrom(reader, data, 0, data.length);");
+        assertThat(standaloneCode).contains("return parseFrom(reader.reset(data, offset, length), 0);");
+    }
+
+    @Test
+    void testParallelBulkParse() {
+        DescriptorProto message = DescriptorProto.newBuilder()
+                .setName("Frame")
+                .addField(field(1, "seq", FieldDescriptorProto.Type.TYPE_INT64))
+                .build();
+
+        String generatedCode = new ValueClassGenerator("com.example", message).generate();
+
+        assertThat(generatedCode).contains("private static final int PARALLEL_THRESHOLD = 1024;");
+        assertThat(generatedCode).contains("public static void parseAllParallel(byte[][] inputs, Frame[] dest, ForkJoinPool pool) throws IOException");
+        assertThat(generatedCode).contains("parseAllParallel(inputs, dest, ForkJoinPool.commonPool());");
+        assertThat(generatedCode).contains("pool.invoke(new ParseTask(inputs, dest, 0, inputs.length));");
+        assertThat(generatedCode).contains("@SuppressWarnings(\"serial\")\n    private static final class ParseTask extends RecursiveAction {");
+        assertThat(generatedCode).contains("invokeAll(new ParseTask(inputs, dest, from, mid), new ParseTask(inputs, dest, mid, to));");
+        // Parse errors surface as the original IOException
+        assertThat(generatedCode).contains("throw e.getCause();");
+    }
+
+    @Test
+    void testEveryImportIsUsed() {
+        DescriptorProto message = DescriptorProto.newBuilder()
+                .setName("Frame")
+                .addField(field(1, "seq", FieldDescriptorProto.Type.TYPE_INT64))
+                .build();
+
+        String generatedCode = new ValueClassGenerator("com.example", message).generate();
+        String body = generatedCode.substring(generatedCode.indexOf("/**"));
+
+        for (String line : generatedCode.substring(0, generatedCode.indexOf("/**")).split("\n")) {
+            if (line.startsWith("import ") && !line.endsWith("*;")) {
+                String simpleName = line.substring(line.lastIndexOf('.') + 1, line.length() - 1);
+                assertThat(body).contains(simpleName);
+            }
+        }
+        // Only fixed-layout messages read through VarHandles
+        assertThat(generatedCode).doesNotContain("import java.lang.invoke.VarHandle;");
+        assertThat(generatedCode).doesNotContain("import java.nio.ByteOrder;");
+    }
+
+    @Test
+    void testDelimitedStreams() {
+        DescriptorProto message = DescriptorProto.newBuilder()
+                .setName("Frame")
+                .addField(field(1, "seq", FieldDescriptorProto.Type.TYPE_INT64))
+                .build();
+
+        String generatedCode = new ValueClassGenerator("com.example", message).generate();
+
+        assertThat(generatedCode).contains("public static Frame parseDelimitedFrom(InputStream input) throws IOException");
+        assertThat(generatedCode).contains("return parseDelimitedFrom(input, DelimitedReader.DEFAULT_SIZE_LIMIT);");
+        assertThat(generatedCode).contains("public static Frame parseDelimitedFrom(InputStream input, int sizeLimit) throws IOException");
+        assertThat(generatedCode.indexOf("if (size > sizeLimit)"))
+                .isGreaterThan(0)
+                .isLessThan(generatedCode.indexOf("input.readNBytes(size)"));
+        assertThat(generatedCode).contains("int size = CodedInputStream.readRawVarint32(firstByte, input);");
+        assertThat(generatedCode).contains("public void writeDelimitedTo(OutputStream output) throws IOException");
+        assertThat(generatedCode).contains("coded.writeUInt32NoTag(size);");
+        assertThat(generatedCode).contains("public static DelimitedReader<Frame> delimitedReader(InputStream input)");
+        assertThat(generatedCode).contains("public static DelimitedReader<Frame> delimitedReader(ReadableByteChannel channel)");
+        assertThat(generatedCode).contains("return DelimitedReader.of(input, Frame::parseFrom);");
+
+        String standaloneCode = new ValueClassGenerator("com.example", message,
+                GeneratorOptions.parse("standalone_reader,standalone_writer")).generate();
+        assertThat(standaloneCode).contains("return DelimitedReader.of(channel, (data, offset, length) -> parseFrom(reader, data, offset, length));");
+        assertThat(standaloneCode).contains("writeChecked(buffer, prefix, size);");
+    }
+
+    @Test
+    void testMemorySegmentEntryPoints() {
+        DescriptorProto message = DescriptorProto.newBuilder()
+                .setName("Packet")
+                .addField(field(1, "id", FieldDescriptorProto.Type.TYPE_INT64))
+                .build();
+
+        String generatedCode = new ValueClassGenerator("com.example", message).generate();
+
+        assertThat(generatedCode).contains("import java.lang.foreign.MemorySegment;");
+        assertThat(generatedCode).contains("public static Packet parseFrom(MemorySegment segment, long offset, long length)");
+        assertThat(generatedCode).contains("return parseFrom(new SegmentReader(segment.asSlice(offset, length)), 0);");
+        assertThat(generatedCode).contains("private static Packet parseFrom(SegmentReader input, int $depth)");
+        assertThat(generatedCode).contains("public int writeTo(MemorySegment segment, long offset) {");
+        assertThat(generatedCode).contains("writeTo(new SegmentWriter(segment.asSlice(offset, size)));");
+        assertThat(generatedCode).contains("public void writeTo(SegmentWriter output) {");
+        assertThat(generatedCode).doesNotContain("asByteBuffer()");
+    }
+
+    @Test
+    void testNestedMessageParsingReusesInputStream() {
+        DescriptorProto message = DescriptorProto.newBuilder()
+                .setName("Order")
+                .addField(FieldDescriptorProto.newBuilder()
+                        .setNumber(1)
+                        .setName("item")
+                        .setType(FieldDescriptorProto.Type.TYPE_MESSAGE)
+                        .setTypeName(".com.example.LineItem")
+                        .build())
+                .build();
+
+        String generatedCode = new ValueClassGenerator("com.example", message).generate();
+
+        assertThat(generatedCode).contains("public static Order readNested(CodedInputStream input, int $depth)");
+        assertThat(generatedCode).contains("if ($depth >= RECURSION_LIMIT)");
+        assertThat(generatedCode).contains("int oldLimit = input.pushLimit(length);");
+        assertThat(generatedCode).contains("input.popLimit(oldLimit);");
+        assertThat(generatedCode).contains("item = LineItem.readNested(input, $depth);");
+        assertThat(generatedCode).doesNotContain("toByteArray())");
+    }
+
+    @Test
+    void testFieldNamedDepthDoesNotClashWithNestingParameter() {
+        DescriptorProto message = DescriptorProto.newBuilder()
+                .setName("Level")
+                .addField(field(1, "depth", FieldDescriptorProto.Type.TYPE_INT32))
+                .addField(field(2, "child", FieldDescriptorProto.Type.TYPE_MESSAGE).toBuilder()
+                        .setTypeName(".com.example.Level").build())
+                .build();
+
+        String generatedCode = new ValueClassGenerator("com.example", message,
+                GeneratorOptions.parse("standalone_reader")).generate();
+
+        assertThat(generatedCode).contains("private static Level parseFrom(CodedInputStream input, int $depth)");
+        assertThat(generatedCode).contains("private static Level parseFrom(WireReader input, int $depth, long $fieldMask)");
+        assertThat(generatedCode).contains("int depth = 0;");
+        assertThat(generatedCode).contains("depth = input.readInt32();");
+        assertThat(generatedCode).contains("child = Level.readNested(input, $depth);");
+        assertThat(generatedCode).doesNotContain("int depth)");
+    }
+
+    @Test
+    void testNestedMessageWrittenIntoParentStream() {
+        DescriptorProto message = DescriptorProto.newBuilder()
+                .setName("Order")
+                .addField(FieldDescriptorProto.newBuilder()
+                        .setNumber(1)
+                        .setName("item")
+                        .setType(FieldDescriptorProto.Type.TYPE_MESSAGE)
+                        .setTypeName(".com.example.LineItem")
+                        .build())
+                .build();
+
+        String generatedCode = new ValueClassGenerator("com.example", message).generate();
+
+        assertThat(generatedCode).contains("output.writeUInt32NoTag(this.item.getSerializedSize());");
+        assertThat(generatedCode).contains("this.item.writeTo(output);");
+        assertThat(generatedCode).doesNotContain("messageBytes");
+        assertThat(generatedCode).containsOnlyOnce("this.item.getSerializedSize();\n            size +=");
+    }
+
+    @Test
+    void testMemoizedSerializedSize() {
+        DescriptorProto message = DescriptorProto.newBuilder()
+                .setName("Person")
+                .addField(field(1, "name", FieldDescriptorProto.Type.TYPE_STRING))
+                .addField(FieldDescriptorProto.newBuilder()
+                        .setNumber(2)
+                        .setName("scores")
+                        .setLabel(FieldDescriptorProto.Label.LABEL_REPEATED)
+                        .setType(FieldDescriptorProto.Type.TYPE_INT32)
+                        .build())
+                .addField(FieldDescriptorProto.newBuilder()
+                        .setNumber(3)
+                        .setName("item")
+                        .setLabel(FieldDescriptorProto.Label.LABEL_REPEATED)
+                        .setType(FieldDescriptorProto.Type.TYPE_STRING)
+                        .build())
+                .build();
+
+        String generatedCode = new ValueClassGenerator("com.example", message,
+                GeneratorOptions.parse("memoize_size")).generate();
+
+        assertThat(generatedCode).contains("private final int serializedSize;");
+        assertThat(generatedCode).contains("scores = scores == null ? IntArray.of() : scores;");
+        assertThat(generatedCode).contains("this.serializedSize = computeSerializedSize(name, scores, item);");
+        assertThat(generatedCode).contains("private static int computeSerializedSize(String $name, IntArray $scores, List<String> $item) {");
+        // The loop variable no longer shadows a constructor argument named item
+        assertThat(generatedCode).contains("for (String item : $item) {");
+        assertThat(generatedCode).contains("if (!$name.isEmpty()) {\n            size += CodedOutputStream.computeStringSize(1, $name);");
+        assertThat(generatedCode).contains("int packedSize = computeScoresPackedSize($scores);");
+        assertThat(generatedCode).contains("public int getSerializedSize() {\n        return serializedSize;\n    }");
+
+        String defaultCode = new ValueClassGenerator("com.example", message).generate();
+        assertThat(defaultCode).doesNotContain("serializedSize");
+    }
+
+    @Test
+    void testPackedRepeatedScalars() {
+        DescriptorProto message = DescriptorProto.newBuilder()
+                .setName("Series")
+                .addField(repeatedField(1, "points", FieldDescriptorProto.Type.TYPE_DOUBLE))
+                .addField(repeatedField(2, "counts", FieldDescriptorProto.Type.TYPE_INT32))
+                .addField(repeatedField(3, "labels", FieldDescriptorProto.Type.TYPE_STRING))
+                .build();
+
+        String generatedCode = new ValueClassGenerator("com.example", message).generate();
+
+        // both encodings are accepted when parsing
+        assertThat(generatedCode).contains("case 9: // field 1: points");
+        assertThat(generatedCode).contains("case 10: { // field 1: points (packed)");
+        assertThat(generatedCode).contains("case 16: // field 2: counts");
+        assertThat(generatedCode).contains("case 18: { // field 2: counts (packed)");
+        assertThat(generatedCode).contains("while (input.getBytesUntilLimit() > 0) {");
+        assertThat(generatedCode).doesNotContain("labels (packed)");
+
+        // packed on write, with the payload size known up front
+        assertThat(generatedCode).contains("output.writeUInt32NoTag(this.points.size() * 8);");
+        assertThat(generatedCode).contains("output.writeDoubleNoTag(item);");
+        assertThat(generatedCode).contains("output.writeUInt32NoTag(computeCountsPackedSize(this.counts));");
+        assertThat(generatedCode).contains("private static int computeCountsPackedSize(IntArray values)");
+        assertThat(generatedCode).contains("output.writeString(3, item);");
+    }
+
+    @Test
+    void testLazyMessages() {
+        DescriptorProto message = DescriptorProto.newBuilder()
+                .setName("Envelope")
+                .addField(field(1, "route", FieldDescriptorProto.Type.TYPE_STRING))
+                .addField(FieldDescriptorProto.newBuilder()
+                        .setNumber(2)
+                        .setName("payload")
+                        .setType(FieldDescriptorProto.Type.TYPE_MESSAGE)
+                        .setTypeName(".com.example.Payload")
+                        .build())
+                .build();
+
+        String generatedCode = new ValueClassGenerator("com.example", message,
+                GeneratorOptions.parse("lazy_messages")).generate();
+
+        assertThat(generatedCode).contains("private final LazyMessage<Payload> payload;");
+        assertThat(generatedCode).contains("public Envelope(String route, LazyMessage<Payload> payload)");
+        assertThat(generatedCode).contains("\n    Envelope(String route, LazyMessage<Payload> payload, int presenceBits)");
+        assertThat(generatedCode).contains("return payload == null ? null : payload.get();");
+        assertThat(generatedCode).contains("public LazyMessage<Payload> getPayloadLazy() {\n        return payload;");
+        assertThat(generatedCode).contains("return new Envelope(this.route, value == null ? null : LazyMessage.of(value), "
+                + "value != null ? this.presenceBits | (1 << 0) : this.presenceBits & ~(1 << 0));");
+        assertThat(generatedCode).contains("payload = LazyMessage.ofBytes(input.readBytes(), $depth, Payload::parseNested);");
+        assertThat(generatedCode).contains("output.writeBytesNoTag(this.payload.getBytes());");
+        assertThat(generatedCode).contains("int messageSize = this.payload.hasBytes() ? this.payload.getBytes().size()");
+        assertThat(generatedCode).doesNotContain("Payload.readNested(input, $depth)");
+    }
+
+    @Test
+    void testLazyMessagesKeepTheRecursionLimit() {
+        DescriptorProto message = DescriptorProto.newBuilder()
+                .setName("Node")
+                .addField(FieldDescriptorProto.newBuilder()
+                        .setNumber(1)
+                        .setName("child")
+                        .setType(FieldDescriptorProto.Type.TYPE_MESSAGE)
+                        .setTypeName(".com.example.Node")
+                        .build())
+                .build();
+
+        String generatedCode = new ValueClassGenerator("com.example", message,
+                GeneratorOptions.parse("lazy_messages")).generate();
+
+        // A deferred child is decoded one level below the parent, not from depth 0
+        assertThat(generatedCode).contains("child = LazyMessage.ofBytes(input.readBytes(), $depth, Node::parseNested);");
+        assertThat(generatedCode).contains("public static Node parseNested(CodedInputStream input, int $depth)");
+        assertThat(generatedCode).contains("""
+                        if ($depth >= RECURSION_LIMIT) {
+                            throw new InvalidProtocolBufferException("Protocol message had too many levels of nesting");
+                        }
+                        return parseFrom(input, $depth + 1);
+                """);
+    }
+
+    @Test
+    void testRepeatedScalarsUsePrimitiveContainers() {
+        DescriptorProto message = DescriptorProto.newBuilder()
+                .setName("Series")
+                .addField(repeatedField(1, "points", FieldDescriptorProto.Type.TYPE_DOUBLE))
+                .addField(repeatedField(2, "labels", FieldDescriptorProto.Type.TYPE_STRING))
+                .build();
+
+        String generatedCode = new ValueClassGenerator("com.example", message).generate();
+
+        assertThat(generatedCode).contains("private final DoubleArray points;");
+        assertThat(generatedCode).contains("this.points = points == null ? DoubleArray.of() : points;");
+        assertThat(generatedCode).contains("public DoubleArray getPoints()");
+        assertThat(generatedCode).contains("DoubleArray.Builder points = null;");
+        assertThat(generatedCode).contains("points.ensureCapacity(points.size() + packedLength / 8);");
+        assertThat(generatedCode).contains("points == null ? DoubleArray.of() : points.build()");
+        assertThat(generatedCode).contains("double item = this.points.get(i);");
+        assertThat(generatedCode).contains("private final List<String> labels;");
+        assertThat(generatedCode).contains("for (String item : this.labels) {");
+    }
+
+    @Test
+    void testFlattenedRepeatedMessages() {
+        DescriptorProto message = DescriptorProto.newBuilder()
+                .setName("Order")
+                .addField(repeatedField(1, "items", FieldDescriptorProto.Type.TYPE_MESSAGE).toBuilder()
+                        .setTypeName(".com.example.LineItem")
+                        .build())
+                .build();
+
+        String generatedCode = new ValueClassGenerator("com.example", message,
+                GeneratorOptions.parse("flatten_repeated_messages")).generate();
+
+        assertThat(generatedCode).contains("private final LineItemArray items;");
+        assertThat(generatedCode).contains("this.items = items == null ? LineItemArray.of() : items;");
+        assertThat(generatedCode).contains("public LineItemArray getItems()");
+        assertThat(generatedCode).contains("LineItemArray.Builder items = null;");
+        assertThat(generatedCode).contains("items.add(LineItem.readNested(input, $depth));");
+        assertThat(generatedCode).contains("LineItem item = this.items.get(i);");
+        assertThat(generatedCode).doesNotContain("List<LineItem>");
+    }
+
+    @Test
+    void testLazyStrings() {
+        DescriptorProto message = DescriptorProto.newBuilder()
+                .setName("Product")
+                .addField(field(1, "name", FieldDescriptorProto.Type.TYPE_STRING))
+                .addField(field(2, "price", FieldDescriptorProto.Type.TYPE_DOUBLE))
+                .addField(repeatedField(3, "tags", FieldDescriptorProto.Type.TYPE_STRING))
+                .build();
+
+        String generatedCode = new ValueClassGenerator("com.example", message,
+                GeneratorOptions.parse("lazy_strings")).generate();
+
+        assertThat(generatedCode).contains("private final ByteString name;");
+        assertThat(generatedCode).contains("public Product(ByteString name, double price, List<String> tags)");
+        assertThat(generatedCode).contains("return name.toStringUtf8();");
+        assertThat(generatedCode).contains("public ByteString getNameBytes()");
+        assertThat(generatedCode).contains("return new Product(ByteString.copyFromUtf8(value), this.price, this.tags);");
+        assertThat(generatedCode).contains("ByteString name = ByteString.EMPTY;");
+        assertThat(generatedCode).contains("name = input.readBytes();");
+        assertThat(generatedCode).contains("output.writeBytes(1, this.name);");
+        assertThat(generatedCode).contains("CodedOutputStream.computeBytesSize(1, this.name)");
+        assertThat(generatedCode).contains("output.writeString(3, item);");
+    }
+
+    @Test
+    void testProjectedParser() {
+        DescriptorProto message = DescriptorProto.newBuilder()
+                .setName("Product")
+                .addField(field(1, "sku", FieldDescriptorProto.Type.TYPE_STRING))
+                .addField(field(2, "price", FieldDescriptorProto.Type.TYPE_DOUBLE))
+                .addField(repeatedField(3, "ratings", FieldDescriptorProto.Type.TYPE_INT32))
+                .build();
+
+        String generatedCode = new ValueClassGenerator("com.example", message).generate();
+
+        assertThat(generatedCode).contains("public static Product parseFrom(byte[] data, long $fieldMask)");
+        assertThat(generatedCode).contains("public static Product parseFrom(CodedInputStream input, long $fieldMask)");
+        assertThat(generatedCode).contains("private static Product parseFrom(CodedInputStream input, int $depth, long $fieldMask)");
+        assertThat(generatedCode).contains("if (($fieldMask & ProductFields.SKU) == 0) {");
+        assertThat(generatedCode).contains("if (($fieldMask & ProductFields.PRICE) == 0) {");
+        assertThat(generatedCode).contains("input.skipField(tag);");
+        assertThat(generatedCode).contains("""
+                                case 26: { // field 3: ratings (packed)
+                                    if (($fieldMask & ProductFields.RATINGS) == 0) {
+                """);
+    }
+
+    @Test
+    void testFieldNamedFieldsDoesNotClashWithFieldMask() {
+        DescriptorProto message = DescriptorProto.newBuilder()
+                .setName("Struct")
+                .addField(repeatedField(1, "fields", FieldDescriptorProto.Type.TYPE_STRING))
+                .build();
+
+        String generatedCode = new ValueClassGenerator("com.example", message).generate();
+
+        assertThat(generatedCode).contains("private static Struct parseFrom(CodedInputStream input, int $depth, long $fieldMask)");
+        assertThat(generatedCode).contains("List<String> fields = List.of();");
+        assertThat(generatedCode).contains("if (($fieldMask & StructFields.FIELDS) == 0) {");
+        assertThat(generatedCode).doesNotContain("long fields");
+        assertThat(generatedCode).doesNotContain("(fields &");
+    }
+
+    @Test
+    void testPredictedFieldOrder() {
+        DescriptorProto message = DescriptorProto.newBuilder()
+                .setName("Product")
+                .addField(field(2, "price", FieldDescriptorProto.Type.TYPE_DOUBLE))
+                .addField(field(1, "id", FieldDescriptorProto.Type.TYPE_INT64))
+                .addField(repeatedField(3, "tags", FieldDescriptorProto.Type.TYPE_STRING))
+                .addField(repeatedField(4, "ratings", FieldDescriptorProto.Type.TYPE_INT32))
+                .build();
+
+        String generatedCode = new ValueClassGenerator("com.example", message).generate();
+
+        // Tried in field-number order, not declaration order
+        assertThat(generatedCode).contains("""
+                        int tag = input.readTag();
+                        if (tag == 8) { // field 1: id
+                            id = input.readInt64();
+                            tag = input.readTag();
+                        }
+                        if (tag == 17) { // field 2: price
+                """);
+        assertThat(generatedCode).contains("while (tag == 26) { // field 3: tags");
+        assertThat(generatedCode).contains("if (tag == 34) { // field 4: ratings");
+        assertThat(generatedCode).contains("while (tag != 0) {");
+        assertThat(generatedCode).doesNotContain("isAtEnd()");
+    }
+
+    @Test
+    void testStandaloneReader() {
+        DescriptorProto message = DescriptorProto.newBuilder()
+                .setName("Order")
+                .addField(field(1, "id", FieldDescriptorProto.Type.TYPE_INT64))
+                .addField(FieldDescriptorProto.newBuilder()
+                        .setNumber(2)
+                        .setName("item")
+                        .setType(FieldDescriptorProto.Type.TYPE_MESSAGE)
+                        .setTypeName(".com.example.LineItem")
+                        .build())
+                .build();
+
+        String generatedCode = new ValueClassGenerator("com.example", message,
+                GeneratorOptions.parse("standalone_reader")).generate();
+
+        assertThat(generatedCode).contains("return parseFrom(new WireReader(data, offset, length), 0);");
+        assertThat(generatedCode).contains("public static Order parseFrom(WireReader input) throws IOException");
+        assertThat(generatedCode).contains("return parseFrom(new WireReader(data.array(), data.arrayOffset() + data.position(), data.remaining()), 0);");
+        assertThat(generatedCode).contains("public static Order readNested(WireReader input, int $depth)");
+        assertThat(generatedCode).contains("private static Order parseFrom(WireReader input, int $depth)");
+        assertThat(generatedCode).contains("private static Order parseFrom(WireReader input, int $depth, long $fieldMask)");
+        // The CodedInputStream API is still served by its own loop
+        assertThat(generatedCode).contains("public static Order readNested(CodedInputStream input, int $depth)");
+        assertThat(generatedCode).contains("private static Order parseFrom(CodedInputStream input, int $depth)");
+
+        String defaultCode = new ValueClassGenerator("com.example", message).generate();
+        assertThat(defaultCode).doesNotContain("WireReader");
+    }
+
+    @Test
+    void testStandaloneWriter() {
+        DescriptorProto message = DescriptorProto.newBuilder()
+                .setName("Tick")
+                .addField(field(1, "symbol", FieldDescriptorProto.Type.TYPE_STRING))
+                .addField(field(2, "price", FieldDescriptorProto.Type.TYPE_DOUBLE))
+                .addField(field(20, "volume", FieldDescriptorProto.Type.TYPE_SINT64))
+                .addField(repeatedField(3, "sizes", FieldDescriptorProto.Type.TYPE_FIXED32))
+                .build();
+
+        String generatedCode = new ValueClassGenerator("com.example", message,
+                GeneratorOptions.parse("standalone_writer")).generate();
+
+        assertThat(generatedCode).contains("Objects.checkFromIndexSize(offset, size, dst.length);");
+        assertThat(generatedCode).contains("WireWriter output = new WireWriter(dst, offset);");
+        assertThat(generatedCode).contains("public void writeTo(WireWriter output) {");
+        assertThat(generatedCode).contains("output.writeRawByte((byte) 10); // field 1, wire type 2");
+        assertThat(generatedCode).contains("output.writeStringNoTag(this.symbol);");
+        assertThat(generatedCode).contains("output.writeRawByte((byte) 17); // field 2, wire type 1");
+        assertThat(generatedCode).contains("output.writeDoubleNoTag(this.price);");
+        assertThat(generatedCode).contains("output.writeRawShort((short) 416); // field 20, wire type 0");
+        assertThat(generatedCode).contains("output.writeRawByte((byte) 26); // field 3, wire type 2");
+        assertThat(generatedCode).contains("output.writeFixed32NoTag(item);");
+        // The CodedOutputStream path is kept for streams and segments
+        assertThat(generatedCode).contains("public void writeTo(CodedOutputStream output) throws IOException");
+        assertThat(generatedCode).contains("output.writeDouble(2, this.price);");
+    }
+
+    @Test
+    void testFixedLayoutFastPath() {
+        DescriptorProto message = DescriptorProto.newBuilder()
+                .setName("Tick")
+                .addField(field(2, "bid", FieldDescriptorProto.Type.TYPE_DOUBLE))
+                .addField(field(1, "venue", FieldDescriptorProto.Type.TYPE_FIXED32))
+                .addField(field(3, "live", FieldDescriptorProto.Type.TYPE_BOOL))
+                .build();
+
+        String generatedCode = new ValueClassGenerator("com.example", message).generate();
+
+        // 5 + 9 + 2 bytes, laid out in field-number order
+        assertThat(generatedCode).contains("private static final int FIXED_LAYOUT_SIZE = 16;");
+        assertThat(generatedCode).contains("if (length == FIXED_LAYOUT_SIZE) {");
+        assertThat(generatedCode).contains("Objects.checkFromIndexSize(offset, length, data.length);\n        if (length == FIXED_LAYOUT_SIZE) {");
+        assertThat(generatedCode).contains("Tick value = parseFixedLayout(data, offset);");
+        assertThat(generatedCode).contains("Tick value = parseFixedLayout(data.array(), data.arrayOffset() + data.position());");
+        assertThat(generatedCode).contains("private static Tick parseFixedLayout(byte[] data, int offset)");
+        assertThat(generatedCode).contains("if (data[offset + 0] != 13");
+        assertThat(generatedCode).contains("|| data[offset + 5] != 17");
+        assertThat(generatedCode).contains("|| data[offset + 15] < 0) {");
+        assertThat(generatedCode).contains("return new Tick(Double.longBitsToDouble((long) LONG_LE.get(data, offset + 6)),");
+        assertThat(generatedCode).contains("(int) INT_LE.get(data, offset + 1),");
+        assertThat(generatedCode).contains("data[offset + 15] != 0);");
+
+        DescriptorProto mixed = message.toBuilder()
+                .addField(field(4, "count", FieldDescriptorProto.Type.TYPE_INT32))
+                .build();
+        assertThat(new ValueClassGenerator("com.example", mixed).generate()).doesNotContain("FIXED_LAYOUT_SIZE");
+    }
+
+    @Test
+    void testEnumFields() {
+        DescriptorProto message = DescriptorProto.newBuilder()
+                .setName("Order")
+                .addField(field(1, "status", FieldDescriptorProto.Type.TYPE_ENUM).toBuilder()
+                        .setTypeName(".com.example.Status").build())
+                .addField(repeatedField(2, "flags", FieldDescriptorProto.Type.TYPE_ENUM).toBuilder()
+                        .setTypeName(".com.example.Flag").build())
+                .build();
+
+        String generatedCode = new ValueClassGenerator("com.example", message).generate();
+
+        // Stored as the raw number, so unknown values survive a round trip
+        assertThat(generatedCode).contains("private final int status;");
+        assertThat(generatedCode).contains("private final IntArray flags;");
+        assertThat(generatedCode).contains("status = input.readEnum();");
+        assertThat(generatedCode).contains("output.writeEnum(1, this.status);");
+        assertThat(generatedCode).contains("CodedOutputStream.computeEnumSize(1, this.status)");
+        assertThat(generatedCode).contains("public int getStatusValue()");
+        assertThat(generatedCode).contains("public Status getStatus() {");
+        assertThat(generatedCode).contains("Status value = Status.forNumber(status);");
+        assertThat(generatedCode).contains("return value == null ? Status.UNRECOGNIZED : value;");
+        assertThat(generatedCode).contains("public Order withStatus(Status value)");
+        assertThat(generatedCode).contains("public IntArray getFlagsValue()");
+        assertThat(generatedCode).contains("public Flag getFlags(int index)");
+    }
+
+    @Test
+    void testOneofFields() {
+        DescriptorProto message = DescriptorProto.newBuilder()
+                .setName("Event")
+                .addField(field(1, "id", FieldDescriptorProto.Type.TYPE_INT64))
+                .addField(field(2, "text", FieldDescriptorProto.Type.TYPE_STRING).toBuilder()
+                        .setOneofIndex(0).build())
+                .addField(field(3, "ratio", FieldDescriptorProto.Type.TYPE_DOUBLE).toBuilder()
+                        .setOneofIndex(0).build())
+                .addOneofDecl(OneofDescriptorProto.newBuilder().setName("payload").build())
+                .build();
+
+        String generatedCode = new ValueClassGenerator("com.example", message).generate();
+
+        // One discriminator plus one primitive and one reference slot for all members
+        assertThat(generatedCode).contains("private final int payloadCase;");
+        assertThat(generatedCode).contains("private final long payloadBits;");
+        assertThat(generatedCode).contains("private final Object payloadRef;");
+        assertThat(generatedCode).doesNotContain("private final double ratio;");
+        // Callers pass one boxed argument per member, the slots are only filled internally
+        assertThat(generatedCode).contains("public Event(long id, String text, Double ratio) {\n"
+                + "        this(id, payloadCaseOf(text, ratio), ratio != null ? Double.doubleToRawLongBits(ratio) : 0L, "
+                + "text);");
+        assertThat(generatedCode).contains("\n    Event(long id, int payloadCase, long payloadBits, Object payloadRef) {");
+        assertThat(generatedCode).contains("""
+                    private static int payloadCaseOf(String text, Double ratio) {
+                        int number = 0;
+                        if (text != null) {
+                            number = 2;
+                        }
+                        if (ratio != null) {
+                            if (number != 0) {
+                                throw new IllegalArgumentException("At most one member of oneof payload can be set");
+                            }
+                            number = 3;
+                        }
+                        return number;
+                    }
+                """);
+        assertThat(generatedCode).contains("return payloadCase == 3 ? Double.longBitsToDouble(payloadBits) : 0.0;");
+        assertThat(generatedCode).contains("public boolean hasText()");
+        assertThat(generatedCode).contains("payloadRef = input.readString();");
+        assertThat(generatedCode).contains("payloadBits = Double.doubleToRawLongBits(input.readDouble());");
+        // Set members are written even when they hold the default value
+        assertThat(generatedCode).contains("if (this.payloadCase == 2) {");
+        assertThat(generatedCode).contains("new Event(this.id, 3, Double.doubleToRawLongBits(value), null)");
+        assertThat(generatedCode).contains("public enum PayloadCase {");
+        assertThat(generatedCode).contains("PAYLOAD_NOT_SET(0);");
+        assertThat(generatedCode).contains("public PayloadCase getPayloadCase()");
+        assertThat(generatedCode).contains("public sealed interface PayloadOneof {");
+        assertThat(generatedCode).contains("value record Ratio(double value) implements PayloadOneof {}");
+        assertThat(generatedCode).contains("case 2 -> new PayloadOneof.Text(getText());");
+    }
+
+    @Test
+    void testPresenceBits() {
+        DescriptorProto message = DescriptorProto.newBuilder()
+                .setName("Reading")
+                .addField(field(1, "value", FieldDescriptorProto.Type.TYPE_DOUBLE).toBuilder()
+                        .setProto3Optional(true).setOneofIndex(0).build())
+                .addField(field(2, "unit", FieldDescriptorProto.Type.TYPE_STRING))
+                .addField(field(3, "sensor", FieldDescriptorProto.Type.TYPE_MESSAGE).toBuilder()
+                        .setTypeName(".com.example.Sensor").build())
+                .addOneofDecl(OneofDescriptorProto.newBuilder().setName("_value"))
+                .build();
+
+        String generatedCode = new ValueClassGenerator("com.example", message).generate();
+
+        // Optional scalars stay unboxed, presence lives in one int
+        assertThat(generatedCode).contains("private final double value;");
+        assertThat(generatedCode).contains("private final int presenceBits;");
+        // Callers pass one argument per field, the bits are derived from which ones are null
+        assertThat(generatedCode).contains("public Reading(Double value, String unit, Sensor sensor) {\n"
+                + "        this(value != null ? value : 0.0, unit, sensor, "
+                + "(value != null ? (1 << 0) : 0) | (sensor != null ? (1 << 1) : 0));");
+        assertThat(generatedCode).contains("\n    Reading(double value, String unit, Sensor sensor, int presenceBits) {");
+        assertThat(generatedCode).doesNotContain("public Reading(double value, String unit, Sensor sensor, int presenceBits)");
+        assertThat(generatedCode).contains("return (presenceBits & (1 << 0)) != 0;");
+        assertThat(generatedCode).contains("public boolean hasSensor()");
+        assertThat(generatedCode).contains("return new Reading(0.0, \"\", null, 0);");
+        assertThat(generatedCode).contains("return new Reading(value, this.unit, this.sensor, this.presenceBits | (1 << 0));");
+        assertThat(generatedCode).contains("presenceBits |= (1 << 1);");
+        // Set fields are written even when they hold the default value
+        assertThat(generatedCode).contains("if ((this.presenceBits & (1 << 0)) != 0) {\n            output.writeDouble(1, this.value);");
+        assertThat(generatedCode).contains("if ((this.presenceBits & (1 << 1)) != 0) {\n            int messageSize = this.sensor.getSerializedSize();");
+        assertThat(generatedCode).contains("if (!this.unit.isEmpty())");
+        assertThat(generatedCode).doesNotContain("this.value != 0.0");
+    }
+
+    @Test
+    void testMapFields() {
+        DescriptorProto message = DescriptorProto.newBuilder()
+                .setName("Stats")
+                .addField(repeatedField(1, "counts", FieldDescriptorProto.Type.TYPE_MESSAGE).toBuilder()
+                        .setTypeName(".com.example.Stats.CountsEntry").build())
+                .addNestedType(DescriptorProto.newBuilder()
+                        .setName("CountsEntry")
+                        .setOptions(MessageOptions.newBuilder().setMapEntry(true).build())
+                        .addField(field(1, "key", FieldDescriptorProto.Type.TYPE_STRING))
+                        .addField(field(2, "value", FieldDescriptorProto.Type.TYPE_INT64)))
+                .build();
+
+        String generatedCode = new ValueClassGenerator("com.example", message).generate();
+
+        // No List<CountsEntry>, entries go straight into the map container
+        assertThat(generatedCode).contains("private final StringLongMap counts;");
+        assertThat(generatedCode).contains("public StringLongMap getCounts()");
+        assertThat(generatedCode).contains("StringLongMap.Builder counts = null;");
+        assertThat(generatedCode).contains("readCountsEntry(input, counts, $depth);");
+        assertThat(generatedCode).contains("private static void readCountsEntry(CodedInputStream input, StringLongMap.Builder map, int $depth)");
+        assertThat(generatedCode).contains("map.put(key, value);");
+        assertThat(generatedCode).contains("counts == null ? StringLongMap.of() : counts.build()");
+        assertThat(generatedCode).contains("writeCountsEntry(output, this.counts.keyAt(i), this.counts.valueAt(i));");
+        assertThat(generatedCode).contains("int entrySize = computeCountsEntrySize(this.counts.keyAt(i), this.counts.valueAt(i));");
+        assertThat(generatedCode).contains("CodedOutputStream.computeStringSize(1, key)");
+        assertThat(generatedCode).doesNotContain("CountsEntry>");
+    }
+
+    private FieldDescriptorProto repeatedField(int number, String name, FieldDescriptorProto.Type type) {
+        return FieldDescriptorProto.newBuilder()
+                .setNumber(number)
+                .setName(name)
+                .setLabel(FieldDescriptorProto.Label.LABEL_REPEATED)
+                .setType(type)
+                .build();
+    }
+
     private FieldDescriptorProto field(int number, String name, FieldDescriptorProto.Type type) {
         return FieldDescriptorProto.newBuilder()
                 .setNumber(number)
@@ -72,7 +72,7 @@ class ValueClassPluginTest {
 
         PluginProtos.CodeGeneratorResponse response = PluginProtos.CodeGeneratorResponse.parseFrom(testOut.toByteArray());
 
-        assertThat(response.getFileCount()).isEqualTo(2);
+        assertThat(response.getFileCount()).isEqualTo(6);
 
         PluginProtos.CodeGeneratorResponse.File personClass = response.getFile(0);
         assertThat(personClass.getName()).isEqualTo("com/example/Person.java");
@@ -81,5 +81,155 @@ class ValueClassPluginTest {
         PluginProtos.CodeGeneratorResponse.File personBuilderClass = response.getFile(1);
         assertThat(personBuilderClass.getName()).isEqualTo("com/example/PersonBuilder.java");
         assertThat(personBuilderClass.getContent()).contains("public class PersonBuilder");
+
+        PluginProtos.CodeGeneratorResponse.File personFieldsClass = response.getFile(2);
+        assertThat(personFieldsClass.getName()).isEqualTo("com/example/PersonFields.java");
+        assertThat(personFieldsClass.getContent()).contains("public static final long NAME = 1L << 0;");
+
+        PluginProtos.CodeGeneratorResponse.File delimitedReaderClass = response.getFile(3);
+        assertThat(delimitedReaderClass.getName()).isEqualTo("com/example/DelimitedReader.java");
+        assertThat(response.getFile(4).getName()).isEqualTo("com/example/SegmentReader.java");
+        assertThat(response.getFile(5).getName()).isEqualTo("com/example/SegmentWriter.java");
+    }
+
+    @Test
+    void testPrimitiveContainersGeneratedOncePerPackage() throws IOException {
+        DescriptorProtos.FieldDescriptorProto scores = DescriptorProtos.FieldDescriptorProto.newBuilder()
+                .setName("scores")
+                .setNumber(1)
+                .setLabel(DescriptorProtos.FieldDescriptorProto.Label.LABEL_REPEATED)
+                .setType(DescriptorProtos.FieldDescriptorProto.Type.TYPE_INT32)
+                .build();
+        DescriptorProtos.FileDescriptorProto file = DescriptorProtos.FileDescriptorProto.newBuilder()
+                .setName("scores.proto")
+                .setPackage("com.example")
+                .addMessageType(DescriptorProtos.DescriptorProto.newBuilder().setName("Round").addField(scores))
+                .addMessageType(DescriptorProtos.DescriptorProto.newBuilder().setName("Game").addField(scores))
+                .build();
+
+        PluginProtos.CodeGeneratorRequest request = PluginProtos.CodeGeneratorRequest.newBuilder()
+                .addFileToGenerate("scores.proto")
+                .addProtoFile(file)
+                .build();
+
+        testIn = new ByteArrayInputStream(request.toByteArray());
+        System.setIn(testIn);
+
+        ValueClassPlugin.main(new String[]{});
+
+        PluginProtos.CodeGeneratorResponse response = PluginProtos.CodeGeneratorResponse.parseFrom(testOut.toByteArray());
+
+        assertThat(response.getFileList())
+                .extracting(PluginProtos.CodeGeneratorResponse.File::getName)
+                .containsExactly(
+                        "com/example/Round.java",
+                        "com/example/RoundBuilder.java",
+                        "com/example/RoundFields.java",
+                        "com/example/IntArray.java",
+                        "com/example/Game.java",
+                        "com/example/GameBuilder.java",
+                        "com/example/GameFields.java",
+                        "com/example/DelimitedReader.java",
+                        "com/example/SegmentReader.java",
+                        "com/example/SegmentWriter.java");
+    }
+
+    @Test
+    void testNestedTypesGeneratedAsQualifiedClasses() throws IOException {
+        DescriptorProtos.FileDescriptorProto file = DescriptorProtos.FileDescriptorProto.newBuilder()
+                .setName("order.proto")
+                .setPackage("com.example")
+                .addMessageType(DescriptorProtos.DescriptorProto.newBuilder()
+                        .setName("Order")
+                        .addField(DescriptorProtos.FieldDescriptorProto.newBuilder()
+                                .setName("line")
+                                .setNumber(1)
+                                .setType(DescriptorProtos.FieldDescriptorProto.Type.TYPE_MESSAGE)
+                                .setTypeName(".com.example.Order.Line"))
+                        .addNestedType(DescriptorProtos.DescriptorProto.newBuilder()
+                                .setName("Line")
+                                .addField(DescriptorProtos.FieldDescriptorProto.newBuilder()
+                                        .setName("kind")
+                                        .setNumber(1)
+                                        .setType(DescriptorProtos.FieldDescriptorProto.Type.TYPE_ENUM)
+                                        .setTypeName(".com.example.Order.Line.Kind"))
+                                .addEnumType(DescriptorProtos.EnumDescriptorProto.newBuilder()
+                                        .setName("Kind")
+                                        .addValue(DescriptorProtos.EnumValueDescriptorProto.newBuilder()
+                                                .setName("KIND_UNKNOWN")
+                                                .setNumber(0)))))
+                .build();
+
+        PluginProtos.CodeGeneratorRequest request = PluginProtos.CodeGeneratorRequest.newBuilder()
+                .addFileToGenerate("order.proto")
+                .addProtoFile(file)
+                .build();
+
+        testIn = new ByteArrayInputStream(request.toByteArray());
+        System.setIn(testIn);
+
+        ValueClassPlugin.main(new String[]{});
+
+        PluginProtos.CodeGeneratorResponse response = PluginProtos.CodeGeneratorResponse.parseFrom(testOut.toByteArray());
+
+        assertThat(response.getFileList())
+                .extracting(PluginProtos.CodeGeneratorResponse.File::getName)
+                .containsExactly(
+                        "com/example/Order_Line_Kind.java",
+                        "com/example/Order.java",
+                        "com/example/OrderBuilder.java",
+                        "com/example/OrderFields.java",
+                        "com/example/Order_Line.java",
+                        "com/example/Order_LineBuilder.java",
+                        "com/example/Order_LineFields.java",
+                        "com/example/DelimitedReader.java",
+                        "com/example/SegmentReader.java",
+                        "com/example/SegmentWriter.java");
+        assertThat(response.getFile(1).getContent()).contains("private final Order_Line line;");
+        assertThat(response.getFile(4).getContent()).contains("public Order_Line_Kind getKind()");
+    }
+
+    @Test
+    void testHoistedNameClashReportsError() throws IOException {
+        DescriptorProtos.FileDescriptorProto file = DescriptorProtos.FileDescriptorProto.newBuilder()
+                .setName("order.proto")
+                .setPackage("com.example")
+                .addMessageType(DescriptorProtos.DescriptorProto.newBuilder()
+                        .setName("Order")
+                        .addNestedType(DescriptorProtos.DescriptorProto.newBuilder().setName("Line")))
+                .addMessageType(DescriptorProtos.DescriptorProto.newBuilder().setName("Order_Line"))
+                .build();
+
+        PluginProtos.CodeGeneratorRequest request = PluginProtos.CodeGeneratorRequest.newBuilder()
+                .addFileToGenerate("order.proto")
+                .addProtoFile(file)
+                .build();
+
+        testIn = new ByteArrayInputStream(request.toByteArray());
+        System.setIn(testIn);
+
+        ValueClassPlugin.main(new String[]{});
+
+        PluginProtos.CodeGeneratorResponse response = PluginProtos.CodeGeneratorResponse.parseFrom(testOut.toByteArray());
+
+        assertThat(response.getError()).contains("com.example.Order.Line would be generated as com.example.Order_Line");
+        assertThat(response.getFileCount()).isZero();
+    }
+
+    @Test
+    void testUnknownOptionReportsError() throws IOException {
+        PluginProtos.CodeGeneratorRequest request = PluginProtos.CodeGeneratorRequest.newBuilder()
+                .setParameter("no_such_option")
+                .build();
+
+        testIn = new ByteArrayInputStream(request.toByteArray());
+        System.setIn(testIn);
+
+        ValueClassPlugin.main(new String[]{});
+
+        PluginProtos.CodeGeneratorResponse response = PluginProtos.CodeGeneratorResponse.parseFrom(testOut.toByteArray());
+
+        assertThat(response.getError()).isEqualTo("Unknown option: no_such_option");
+        assertThat(response.getFileCount()).isZero();
     }
 }
@@ -0,0 +1,28 @@
+package com.dariobalinzo.protoc.valhalla;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class WireReaderGeneratorTest {
+
+    @Test
+    void testGenerateWireReader() {
+        var generator = new WireReaderGenerator("com.example");
+        String generatedCode = generator.generate();
+
+        assertThat(generator.getClassName()).isEqualTo("WireReader");
+        assertThat(generatedCode).contains("package com.example;");
+        assertThat(generatedCode).contains("public final class WireReader");
+        assertThat(generatedCode).contains("public WireReader(byte[] buffer, int offset, int length)");
+        assertThat(generatedCode).contains("public WireReader reset(byte[] buffer, int offset, int length)");
+        assertThat(generatedCode).contains("public int readEnum()");
+        assertThat(generatedCode).contains("MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);");
+        assertThat(generatedCode).contains("int value = (int) INT_LE.get(buffer, pos);");
+        assertThat(generatedCode).contains("return (n >>> 1) ^ -(n & 1);");
+        assertThat(generatedCode).contains("public int pushLimit(int length)");
+        assertThat(generatedCode).contains("public boolean skipField(int tag)");
+        assertThat(generatedCode).contains("public int readRawVarint32()");
+        assertThat(generatedCode).contains("public long readRawVarint64()");
+    }
+}
@@ -0,0 +1,24 @@
+package com.dariobalinzo.protoc.valhalla;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class WireWriterGeneratorTest {
+
+    @Test
+    void testGenerateWireWriter() {
+        var generator = new WireWriterGenerator("com.example");
+        String generatedCode = generator.generate();
+
+        assertThat(generator.getClassName()).isEqualTo("WireWriter");
+        assertThat(generatedCode).contains("package com.example;");
+        assertThat(generatedCode).contains("public final class WireWriter");
+        assertThat(generatedCode).contains("public WireWriter(byte[] buffer, int offset)");
+        assertThat(generatedCode).contains("INT_LE.set(buffer, pos, value);");
+        assertThat(generatedCode).contains("public void writeRawShort(short value)");
+        assertThat(generatedCode).contains("public void writeSInt64NoTag(long value)");
+        assertThat(generatedCode).contains("public void writeStringNoTag(String value)");
+        assertThat(generatedCode).contains("public void writeBytesNoTag(ByteString value)");
+    }
+}